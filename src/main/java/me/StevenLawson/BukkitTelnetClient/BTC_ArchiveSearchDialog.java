@@ -0,0 +1,273 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import me.StevenLawson.BukkitTelnetClient.BTC_TelnetMessage.BTC_LogMessageType;
+
+// Non-modal window over the session archive. Results are added as the archive streams them back,
+// so the first matches show up while older segments are still being scanned.
+public class BTC_ArchiveSearchDialog extends JDialog
+{
+    private static final int RESULT_LIMIT = 10000;
+    private static final String ANY_TYPE = "Any";
+    private static final String SENT_TYPE = "Sent";
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+    private final JComboBox<String> cmbServer = new JComboBox<>();
+    private final JTextField txtText = new JTextField(30);
+    private final JCheckBox chkRegex = new JCheckBox("Regex");
+    private final JTextField txtPlayer = new JTextField(12);
+    private final JComboBox<Object> cmbType = new JComboBox<>();
+    private final JTextField txtFrom = new JTextField(12);
+    private final JTextField txtTo = new JTextField(12);
+    private final JButton btnSearch = new JButton("Search");
+    private final JButton btnStop = new JButton("Stop");
+    private final JLabel lblStatus = new JLabel(" ");
+    private final ResultsTableModel results = new ResultsTableModel();
+
+    private BTC_SessionArchive.Search search = null;
+    private long searchStarted = 0;
+
+    public BTC_ArchiveSearchDialog(final Frame owner, final String server)
+    {
+        super(owner, "Search Archive", false);
+
+        dateFormat.setLenient(false);
+
+        cmbServer.setEditable(true);
+        for (final String archived : BTC_SessionArchive.getServers())
+        {
+            cmbServer.addItem(archived);
+        }
+        if (server != null)
+        {
+            cmbServer.setSelectedItem(BTC_SessionArchive.getDirectoryName(server));
+        }
+
+        cmbType.addItem(ANY_TYPE);
+        cmbType.addItem(SENT_TYPE);
+        for (final BTC_LogMessageType type : BTC_LogMessageType.values())
+        {
+            cmbType.addItem(type);
+        }
+
+        final long now = System.currentTimeMillis();
+        txtFrom.setText(dateFormat.format(new Date(now - 7L * 24 * 60 * 60 * 1000)));
+        txtTo.setText(dateFormat.format(new Date(now + 60 * 1000)));
+
+        final JPanel fields = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        fields.add(new JLabel("Server:"));
+        fields.add(cmbServer);
+        fields.add(new JLabel("Text:"));
+        fields.add(txtText);
+        fields.add(chkRegex);
+        fields.add(new JLabel("Player:"));
+        fields.add(txtPlayer);
+
+        final JPanel range = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        range.add(new JLabel("Type:"));
+        range.add(cmbType);
+        range.add(new JLabel("From (" + dateFormat.toPattern() + "):"));
+        range.add(txtFrom);
+        range.add(new JLabel("To:"));
+        range.add(txtTo);
+        range.add(btnSearch);
+        range.add(btnStop);
+
+        final JPanel top = new JPanel(new GridLayout(2, 1));
+        top.add(fields);
+        top.add(range);
+
+        final JTable table = new JTable(results);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(130);
+        table.getColumnModel().getColumn(1).setPreferredWidth(110);
+        table.getColumnModel().getColumn(2).setPreferredWidth(100);
+        table.getColumnModel().getColumn(3).setPreferredWidth(600);
+
+        getContentPane().add(top, BorderLayout.NORTH);
+        getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
+        getContentPane().add(lblStatus, BorderLayout.SOUTH);
+
+        btnStop.setEnabled(false);
+        btnSearch.addActionListener(event -> startSearch());
+        btnStop.addActionListener(event -> stopSearch("Stopped"));
+        txtText.addActionListener(event -> startSearch());
+        getRootPane().setDefaultButton(btnSearch);
+
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        setSize(1000, 600);
+        setLocationRelativeTo(owner);
+    }
+
+    @Override
+    public void dispose()
+    {
+        stopSearch(" ");
+        super.dispose();
+    }
+
+    private void startSearch()
+    {
+        final Object server = cmbServer.getSelectedItem();
+        if (server == null || server.toString().trim().isEmpty())
+        {
+            JOptionPane.showMessageDialog(this, "Pick a server to search.", "Search Archive", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        final long from;
+        final long to;
+        try
+        {
+            from = dateFormat.parse(txtFrom.getText().trim()).getTime();
+            to = dateFormat.parse(txtTo.getText().trim()).getTime();
+        }
+        catch (java.text.ParseException ex)
+        {
+            JOptionPane.showMessageDialog(this, "Dates must look like " + dateFormat.format(new Date()) + ".", "Search Archive", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        BitSet types = null;
+        if (cmbType.getSelectedItem() instanceof BTC_LogMessageType)
+        {
+            types = new BitSet();
+            types.set(((BTC_LogMessageType) cmbType.getSelectedItem()).getId());
+        }
+        else if (SENT_TYPE.equals(cmbType.getSelectedItem()))
+        {
+            types = new BitSet();
+            types.set(BTC_SessionArchive.TYPE_SENT);
+        }
+
+        final String player = txtPlayer.getText().trim();
+        final BTC_SessionArchive.Query query;
+        try
+        {
+            query = new BTC_SessionArchive.Query(from, to, player.isEmpty() ? null : player, types, txtText.getText(), chkRegex.isSelected(), RESULT_LIMIT);
+        }
+        catch (PatternSyntaxException ex)
+        {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Search Archive", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        stopSearch("Searching...");
+        results.clear();
+        btnStop.setEnabled(true);
+        searchStarted = System.currentTimeMillis();
+        search = BTC_SessionArchive.search(server.toString().trim(), query, new BTC_SessionArchive.SearchListener()
+        {
+            @Override
+            public void onEntries(final List<BTC_SessionArchive.Entry> entries)
+            {
+                results.add(entries);
+                lblStatus.setText("Searching... " + results.getRowCount() + " found");
+            }
+
+            @Override
+            public void onFinished(final int count)
+            {
+                search = null;
+                btnStop.setEnabled(false);
+                lblStatus.setText(count + (count >= RESULT_LIMIT ? " found (limit reached)" : " found") + " in " + (System.currentTimeMillis() - searchStarted) + " ms");
+            }
+        });
+    }
+
+    private void stopSearch(final String status)
+    {
+        if (search != null)
+        {
+            search.cancel();
+            search = null;
+        }
+        btnStop.setEnabled(false);
+        lblStatus.setText(status);
+    }
+
+    private static class ResultsTableModel extends AbstractTableModel
+    {
+        private static final String[] COLUMN_NAMES =
+        {
+            "Time", "Type", "Player", "Message"
+        };
+
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        private final List<BTC_SessionArchive.Entry> entries = new ArrayList<>();
+
+        private void add(final List<BTC_SessionArchive.Entry> batch)
+        {
+            final int first = entries.size();
+            entries.addAll(batch);
+            fireTableRowsInserted(first, entries.size() - 1);
+        }
+
+        private void clear()
+        {
+            entries.clear();
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount()
+        {
+            return entries.size();
+        }
+
+        @Override
+        public int getColumnCount()
+        {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(final int column)
+        {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Object getValueAt(final int row, final int column)
+        {
+            final BTC_SessionArchive.Entry entry = entries.get(row);
+            switch (column)
+            {
+                case 0:
+                    return dateFormat.format(new Date(entry.getTime()));
+                case 1:
+                    return entry.isSent() ? SENT_TYPE : entry.getType() != null ? entry.getType().toString() : "";
+                case 2:
+                    return entry.getPlayer() != null ? entry.getPlayer() : "";
+                default:
+                    return entry.getText();
+            }
+        }
+    }
+}
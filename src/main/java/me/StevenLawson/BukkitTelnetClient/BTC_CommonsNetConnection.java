@@ -0,0 +1,82 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.net.telnet.TelnetClient;
+
+public class BTC_CommonsNetConnection implements BTC_TelnetConnection
+{
+    private final TelnetClient telnetClient = new TelnetClient();
+
+    public BTC_CommonsNetConnection()
+    {
+    }
+
+    @Override
+    public void connect(final String hostname, final int port, final Listener listener)
+    {
+        final Thread connectThread = new Thread(() ->
+        {
+            try
+            {
+                BTC_CommonsNetConnection.this.telnetClient.connect(hostname, port);
+
+                listener.onConnected();
+
+                try (final BufferedReader reader = new BufferedReader(new InputStreamReader(telnetClient.getInputStream(), StandardCharsets.UTF_8)))
+                {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                    {
+                        listener.onLine(line);
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                listener.onDisconnected(ex);
+                return;
+            }
+
+            listener.onDisconnected(null);
+        });
+        connectThread.start();
+    }
+
+    @Override
+    public void send(final String text) throws IOException
+    {
+        final OutputStream out = this.telnetClient.getOutputStream();
+        if (out == null)
+        {
+            return;
+        }
+
+        out.write((text + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Override
+    public void disconnect() throws IOException
+    {
+        this.telnetClient.disconnect();
+    }
+}
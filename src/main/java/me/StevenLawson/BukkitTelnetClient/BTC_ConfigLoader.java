@@ -37,6 +37,8 @@ public class BTC_ConfigLoader
     private final ServerEntry.ServerEntryList servers = new ServerEntry.ServerEntryList();
     private final PlayerCommandEntry.PlayerCommandEntryList playerCommands = new PlayerCommandEntry.PlayerCommandEntryList();
     private final FavoriteButtonEntry.FavoriteButtonEntryList favoriteButtons = new FavoriteButtonEntry.FavoriteButtonEntryList();
+    private final MessageClassEntry.MessageClassEntryList messageClasses = new MessageClassEntry.MessageClassEntryList();
+    private SettingsEntry settings = new SettingsEntry();
 
     public BTC_ConfigLoader()
     {
@@ -108,6 +110,16 @@ public class BTC_ConfigLoader
         return favoriteButtons.getList();
     }
 
+    public Collection<MessageClassEntry> getMessageClasses()
+    {
+        return messageClasses.getList();
+    }
+
+    public SettingsEntry getSettings()
+    {
+        return settings;
+    }
+
     private boolean generateXML(final File file)
     {
         try
@@ -120,6 +132,8 @@ public class BTC_ConfigLoader
             rootElement.appendChild(this.servers.listToXML(doc));
             rootElement.appendChild(this.playerCommands.listToXML(doc));
             rootElement.appendChild(this.favoriteButtons.listToXML(doc));
+            rootElement.appendChild(this.messageClasses.listToXML(doc));
+            rootElement.appendChild(this.settings.toXML(doc));
 
             final Transformer transformer = TransformerFactory.newInstance().newTransformer();
             transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
@@ -163,6 +177,24 @@ public class BTC_ConfigLoader
                 System.out.println("Error favorite buttons.");
                 hadErrors = true;
             }
+
+            if (!this.messageClasses.listFromXML(doc))
+            {
+                System.out.println("Error loading messageClasses.");
+                hadErrors = true;
+            }
+            BTC_LogMessageClassifier.setMessageClasses(this.messageClasses.getList());
+
+            final ConfigEntry loadedSettings = this.settings.fromXML(doc);
+            if (loadedSettings instanceof SettingsEntry)
+            {
+                this.settings = (SettingsEntry) loadedSettings;
+            }
+            else
+            {
+                System.out.println("Error loading settings.");
+                hadErrors = true;
+            }
         }
         catch (IOException | ParserConfigurationException | SAXException ex)
         {
@@ -19,22 +19,21 @@
 package me.StevenLawson.BukkitTelnetClient;
 
 import java.awt.Color;
-import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.Timer;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.apache.commons.net.telnet.TelnetClient;
 
 public class BTC_ConnectionManager
 {
     private static final Pattern LOGIN_MESSAGE = Pattern.compile("\\[.+?@BukkitTelnet\\]\\$ Logged in as (.+)\\.");
 
-    private final TelnetClient telnetClient = new TelnetClient();
-    private Thread connectThread;
+    private final BTC_PlayerListDecoder playerListDecoder = new BTC_PlayerListDecoder();
+    private volatile BTC_TelnetConnection connection;
     private String hostname;
     private int port;
     private boolean canDoDisconnect = false;
@@ -57,7 +56,7 @@ public class BTC_ConnectionManager
         this.loginName = null;
         updateTitle(true);
 
-        startConnectThread();
+        startConnection();
     }
 
     public void triggerConnect(final String hostnameAndPort)
@@ -90,9 +89,15 @@ public class BTC_ConnectionManager
         {
             this.canDoDisconnect = false;
 
+            final BTC_TelnetConnection _connection = this.connection;
+            if (_connection == null)
+            {
+                return;
+            }
+
             try
             {
-                this.telnetClient.disconnect();
+                _connection.disconnect();
             }
             catch (IOException ex)
             {
@@ -112,6 +117,10 @@ public class BTC_ConnectionManager
 
         loginName = null;
 
+        // The players still listed left along with us, and the next connection starts from an empty list.
+        playerListDecoder.reset();
+        btc.clearPlayerList(getServerAddress());
+
         updateTitle(false);
 
         btc.writeToConsole(new BTC_ConsoleMessage("Disconnected.", Color.RED));
@@ -131,14 +140,14 @@ public class BTC_ConnectionManager
                 BukkitTelnetClient.mainPanel.writeToConsole(new BTC_ConsoleMessage(":" + text));
             }
 
-            final OutputStream out = this.telnetClient.getOutputStream();
-            if (out == null)
+            final BTC_TelnetConnection _connection = this.connection;
+            if (_connection == null)
             {
                 return;
             }
 
-            this.telnetClient.getOutputStream().write((text + "\r\n").getBytes(StandardCharsets.UTF_8));
-            this.telnetClient.getOutputStream().flush();
+            _connection.send(text);
+            BukkitTelnetClient.mainPanel.getSessionLogWriter().record(getServerAddress(), true, text);
         }
         catch (IOException ex)
         {
@@ -153,79 +162,94 @@ public class BTC_ConnectionManager
         timer.start();
     }
 
-    private void startConnectThread()
+    private void startConnection()
     {
-        if (this.connectThread != null)
+        if (this.connection != null)
         {
             return;
         }
 
-        this.connectThread = new Thread(() ->
-        {
-            final BTC_MainPanel btc = BukkitTelnetClient.mainPanel;
+        // The address is already the new server's, nothing left over is recorded against it.
+        this.playerListDecoder.reset();
+        BukkitTelnetClient.mainPanel.clearPlayerList(null);
 
-            try
+        this.connection = BTC_TelnetConnection.create(BukkitTelnetClient.config.getSettings().getConnectionMode());
+        this.connection.connect(hostname, port, new BTC_TelnetConnection.Listener()
+        {
+            @Override
+            public void onConnected()
             {
-                BTC_ConnectionManager.this.telnetClient.connect(hostname, port);
+                final BTC_MainPanel btc = BukkitTelnetClient.mainPanel;
+
                 BTC_ConnectionManager.this.canDoDisconnect = true;
 
                 btc.getBtnSend().setEnabled(true);
                 btc.getTxtCommand().setEnabled(true);
                 btc.getTxtCommand().requestFocusInWindow();
+            }
+
+            @Override
+            public void onLine(final String line)
+            {
+                handleLine(line);
+            }
 
-                try (final BufferedReader reader = new BufferedReader(new InputStreamReader(telnetClient.getInputStream(), StandardCharsets.UTF_8)))
+            @Override
+            public void onDisconnected(final IOException ex)
+            {
+                if (ex != null)
                 {
-                    String line;
-                    while ((line = reader.readLine()) != null)
-                    {
-                        String _loginName = null;
-                        if (BTC_ConnectionManager.this.loginName == null)
-                        {
-                            _loginName = checkForLoginMessage(line);
-                        }
-                        if (_loginName != null)
-                        {
-                            BTC_ConnectionManager.this.loginName = _loginName;
-                            updateTitle(true);
-                            sendDelayedCommand("telnet.enhanced", false, 100);
-                        }
-                        else
-                        {
-                            final PlayerInfo selectedPlayer = btc.getSelectedPlayer();
-                            String selectedPlayerName = null;
-                            if (selectedPlayer != null)
-                            {
-                                selectedPlayerName = selectedPlayer.getName();
-                            }
-
-                            if (BTC_PlayerListDecoder.checkForPlayerListMessage(line, btc.getPlayerList()))
-                            {
-                                btc.updatePlayerList(selectedPlayerName);
-                            }
-                            else
-                            {
-                                final BTC_TelnetMessage message = new BTC_TelnetMessage(line);
-                                if (!message.skip())
-                                {
-                                    btc.writeToConsole(message);
-                                }
-                            }
-                        }
-                    }
+                    BukkitTelnetClient.mainPanel.writeToConsole(new BTC_ConsoleMessage(ex.getMessage() + System.lineSeparator() + ExceptionUtils.getStackTrace(ex)));
                 }
 
                 triggerDisconnect();
+
+                finishDisconnect();
+
+                BTC_ConnectionManager.this.connection = null;
             }
-            catch (IOException ex)
+        });
+    }
+
+    private void handleLine(final String line)
+    {
+        final BTC_MainPanel btc = BukkitTelnetClient.mainPanel;
+
+        String _loginName = null;
+        if (this.loginName == null)
+        {
+            _loginName = checkForLoginMessage(line);
+        }
+        if (_loginName != null)
+        {
+            btc.getSessionLogWriter().record(getServerAddress(), false, line);
+
+            this.loginName = _loginName;
+            updateTitle(true);
+            sendDelayedCommand("telnet.enhanced", false, 100);
+        }
+        else
+        {
+            final List<PlayerInfo> players = this.playerListDecoder.decodePlayerList(line);
+            if (players != null)
             {
-                btc.writeToConsole(new BTC_ConsoleMessage(ex.getMessage() + System.lineSeparator() + ExceptionUtils.getStackTrace(ex)));
+                // The server repeats the list every few seconds, most of the time nothing changed.
+                // Repeats aren't logged either, they would make up most of the log.
+                if (this.playerListDecoder.hasChanged())
+                {
+                    btc.getSessionLogWriter().record(getServerAddress(), false, line);
+                    btc.updatePlayerList(players);
+                }
             }
+            else
+            {
+                final BTC_TelnetMessage message = new BTC_TelnetMessage(line);
+                btc.getSessionLogWriter().record(getServerAddress(), message);
 
-            finishDisconnect();
-
-            BTC_ConnectionManager.this.connectThread = null;
-        });
-        this.connectThread.start();
+                // Filtered by the console view, hidden lines are kept in its history.
+                btc.writeToConsole(message);
+            }
+        }
     }
 
     public static final String checkForLoginMessage(String message)
@@ -239,6 +263,18 @@ public class BTC_ConnectionManager
         return null;
     }
 
+    // Address of the server being (or last) connected to, as host:port.
+    public String getServerAddress()
+    {
+        return hostname + ":" + port;
+    }
+
+    // False until the first connect.
+    public boolean hasServerAddress()
+    {
+        return hostname != null;
+    }
+
     public final void updateTitle(final boolean isConnected)
     {
         final BTC_MainPanel mainPanel = BukkitTelnetClient.mainPanel;
@@ -0,0 +1,175 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+// Find bar over the console: every hit is highlighted as the text is typed, Enter and Shift+Enter
+// (or F3 and Shift+F3) step through them, Escape closes the bar and ends the search.
+public class BTC_ConsoleFindBar extends JPanel
+{
+    // Shorter text can't use the console's trigram index, it's only searched on Enter.
+    private static final int MIN_LIVE_LENGTH = 3;
+
+    private final BTC_ConsoleView consoleView;
+    private final JTextField txtFind = new JTextField(24);
+    private final JLabel lblHits = new JLabel();
+
+    public BTC_ConsoleFindBar(final BTC_ConsoleView consoleView)
+    {
+        super(new FlowLayout(FlowLayout.LEFT, 4, 2));
+        this.consoleView = consoleView;
+
+        final JButton btnPrevious = new JButton("Previous");
+        final JButton btnNext = new JButton("Next");
+        final JButton btnClose = new JButton("Close");
+
+        add(new JLabel("Find:"));
+        add(txtFind);
+        add(btnPrevious);
+        add(btnNext);
+        add(lblHits);
+        add(btnClose);
+
+        txtFind.getDocument().addDocumentListener(new DocumentListener()
+        {
+            @Override
+            public void insertUpdate(final DocumentEvent event)
+            {
+                search();
+            }
+
+            @Override
+            public void removeUpdate(final DocumentEvent event)
+            {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(final DocumentEvent event)
+            {
+                search();
+            }
+        });
+
+        btnPrevious.addActionListener(event -> findNext(false));
+        btnNext.addActionListener(event -> findNext(true));
+        btnClose.addActionListener(event -> close());
+
+        bind(txtFind, KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "find-next", () -> findNext(true));
+        bind(txtFind, KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, InputEvent.SHIFT_DOWN_MASK), "find-previous", () -> findNext(false));
+        bind(txtFind, KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "find-close", this::close);
+
+        setVisible(false);
+    }
+
+    // Ctrl+F, F3 and Shift+F3 anywhere in the window.
+    public void install(final JRootPane rootPane)
+    {
+        bind(rootPane, KeyStroke.getKeyStroke(KeyEvent.VK_F, InputEvent.CTRL_DOWN_MASK), "find-open", this::open);
+        bind(rootPane, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "find-next", () -> findNext(true));
+        bind(rootPane, KeyStroke.getKeyStroke(KeyEvent.VK_F3, InputEvent.SHIFT_DOWN_MASK), "find-previous", () -> findNext(false));
+    }
+
+    private static void bind(final JComponent component, final KeyStroke keyStroke, final String name, final Runnable action)
+    {
+        final int condition = component instanceof JRootPane ? JComponent.WHEN_IN_FOCUSED_WINDOW : JComponent.WHEN_FOCUSED;
+        component.getInputMap(condition).put(keyStroke, name);
+        component.getActionMap().put(name, new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(final ActionEvent event)
+            {
+                action.run();
+            }
+        });
+    }
+
+    public void open()
+    {
+        if (!isVisible())
+        {
+            setVisible(true);
+            revalidate();
+            search();
+        }
+        txtFind.selectAll();
+        txtFind.requestFocusInWindow();
+    }
+
+    public void close()
+    {
+        setVisible(false);
+        revalidate();
+        consoleView.find(null);
+        consoleView.requestFocusInWindow();
+    }
+
+    private void search()
+    {
+        final String text = txtFind.getText();
+        consoleView.find(text.length() >= MIN_LIVE_LENGTH ? text : null);
+        hitsChanged();
+    }
+
+    private void findNext(final boolean forward)
+    {
+        if (!isVisible())
+        {
+            open();
+            return;
+        }
+
+        if (!txtFind.getText().equals(consoleView.getSearchText()))
+        {
+            consoleView.find(txtFind.getText());
+        }
+        consoleView.findNext(forward);
+        hitsChanged();
+    }
+
+    // Call when lines were added or dropped, the console keeps its hits up to date but not this count.
+    public void hitsChanged()
+    {
+        final int hitCount = consoleView.getHitCount();
+        final int currentHit = consoleView.getCurrentHit();
+        if (txtFind.getText().isEmpty())
+        {
+            lblHits.setText("");
+        }
+        else if (consoleView.getSearchText() == null)
+        {
+            lblHits.setText("Press Enter to search");
+        }
+        else if (hitCount == 0)
+        {
+            lblHits.setText("No matches");
+        }
+        else
+        {
+            lblHits.setText(currentHit >= 0 ? (currentHit + 1) + " of " + hitCount : hitCount + " matches");
+        }
+    }
+}
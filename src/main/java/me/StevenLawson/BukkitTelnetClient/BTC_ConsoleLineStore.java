@@ -0,0 +1,704 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.function.Consumer;
+import javax.swing.text.Segment;
+
+// Console lines packed into fixed size chunks: an offset table and a char arena per chunk,
+// plus one color byte (index into BTC_ConsolePalette), a type id and a user message class id per line.
+// Each chunk also indexes its lines by trigram for find(), the index goes when the chunk is trimmed.
+public class BTC_ConsoleLineStore
+{
+    public static final int CHUNK_SHIFT = 12;
+    public static final int CHUNK_LINES = 1 << CHUNK_SHIFT;
+    public static final int TYPE_NONE = 0;
+
+    private static final int INITIAL_ARENA_SIZE = 16 * 1024;
+    private static final int TRIGRAM_BUCKET_BITS = 13;
+    private static final int TRIGRAM_BUCKETS = 1 << TRIGRAM_BUCKET_BITS;
+    // Extra trigrams of the search text checked against the index before a line is read.
+    private static final int TRIGRAM_PROBES = 3;
+
+    private final List<Chunk> chunks = new ArrayList<>();
+    private long firstSeq = 0;
+    private int lineCount = 0;
+    private int maxLineLength = 0;
+    private long memoryBytes = 0;
+
+    public BTC_ConsoleLineStore()
+    {
+    }
+
+    public int append(final CharSequence text, final Color color, final int type, final int messageClass)
+    {
+        return append(text, BTC_ConsolePalette.indexOf(color), type, messageClass);
+    }
+
+    // Splits on '\n' and drops a trailing '\r', one stored line per text line.
+    public int append(final CharSequence text, final int paletteIndex, final int type, final int messageClass)
+    {
+        final byte colorIndex = (byte) paletteIndex;
+        final short typeId = (short) type;
+        final short messageClassId = (short) messageClass;
+
+        int appended = 0;
+        int lineStart = 0;
+        final int length = text.length();
+        for (int i = 0; i <= length; i++)
+        {
+            if (i == length || text.charAt(i) == '\n')
+            {
+                int lineEnd = i;
+                if (lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r')
+                {
+                    lineEnd--;
+                }
+
+                appendLine(text, lineStart, lineEnd, colorIndex, typeId, messageClassId);
+                appended++;
+                lineStart = i + 1;
+            }
+        }
+
+        return appended;
+    }
+
+    private void appendLine(final CharSequence text, final int start, final int end, final byte colorIndex, final short type, final short messageClass)
+    {
+        Chunk chunk = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+        if (chunk == null || chunk.count == CHUNK_LINES)
+        {
+            chunk = new Chunk();
+            this.chunks.add(chunk);
+            this.memoryBytes += chunk.getMemoryBytes();
+        }
+
+        this.memoryBytes -= chunk.getMemoryBytes();
+        chunk.add(text, start, end, colorIndex, type, messageClass);
+        this.memoryBytes += chunk.getMemoryBytes();
+        this.lineCount++;
+        this.maxLineLength = Math.max(this.maxLineLength, end - start);
+    }
+
+    public int getLineCount()
+    {
+        return this.lineCount;
+    }
+
+    // Sequence number of line 0, sequence numbers never change once a line is stored.
+    public long getFirstSeq()
+    {
+        return this.firstSeq;
+    }
+
+    public int getMaxLineLength()
+    {
+        return this.maxLineLength;
+    }
+
+    public void getLine(final int index, final Segment segment)
+    {
+        final Chunk chunk = this.chunks.get(index >>> CHUNK_SHIFT);
+        final int line = index & (CHUNK_LINES - 1);
+
+        segment.array = chunk.arena;
+        segment.offset = chunk.offsets[line];
+        segment.count = chunk.offsets[line + 1] - chunk.offsets[line];
+    }
+
+    public String getLineText(final int index)
+    {
+        final Chunk chunk = this.chunks.get(index >>> CHUNK_SHIFT);
+        final int line = index & (CHUNK_LINES - 1);
+
+        return new String(chunk.arena, chunk.offsets[line], chunk.offsets[line + 1] - chunk.offsets[line]);
+    }
+
+    public int getLineLength(final int index)
+    {
+        final Chunk chunk = this.chunks.get(index >>> CHUNK_SHIFT);
+        final int line = index & (CHUNK_LINES - 1);
+
+        return chunk.offsets[line + 1] - chunk.offsets[line];
+    }
+
+    public Color getColor(final int index)
+    {
+        return BTC_ConsolePalette.get(this.chunks.get(index >>> CHUNK_SHIFT).colors[index & (CHUNK_LINES - 1)] & 0xFF);
+    }
+
+    public int getType(final int index)
+    {
+        return this.chunks.get(index >>> CHUNK_SHIFT).types[index & (CHUNK_LINES - 1)] & 0xFFFF;
+    }
+
+    public int getMessageClass(final int index)
+    {
+        return this.chunks.get(index >>> CHUNK_SHIFT).messageClasses[index & (CHUNK_LINES - 1)] & 0xFFFF;
+    }
+
+    // Case insensitive occurrences of text in the lines from fromSeq on, added to hits in order.
+    // Occurrences within a line don't overlap.
+    public void find(final String text, final long fromSeq, final Hits hits)
+    {
+        if (text.isEmpty())
+        {
+            return;
+        }
+
+        final char[] needle = new char[text.length()];
+        for (int i = 0; i < needle.length; i++)
+        {
+            needle[i] = fold(text.charAt(i));
+        }
+
+        final int[] buckets = needle.length >= 3 ? new int[needle.length - 2] : null;
+        if (buckets != null)
+        {
+            for (int i = 0; i < buckets.length; i++)
+            {
+                buckets[i] = bucketOf(needle[i], needle[i + 1], needle[i + 2]);
+            }
+        }
+
+        final int[] lines = new int[CHUNK_LINES];
+        final long[][] masks = new long[TRIGRAM_PROBES][CHUNK_LINES / 64];
+
+        final long from = Math.max(fromSeq, this.firstSeq);
+        for (int i = (int) ((from - this.firstSeq) >>> CHUNK_SHIFT); i < this.chunks.size(); i++)
+        {
+            final long chunkSeq = this.firstSeq + ((long) i << CHUNK_SHIFT);
+            this.chunks.get(i).find(needle, buckets, (int) Math.max(0, from - chunkSeq), chunkSeq, hits, lines, masks);
+        }
+    }
+
+    private static char fold(final char c)
+    {
+        if (c < 128)
+        {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    private static int bucketOf(final char a, final char b, final char c)
+    {
+        return (((a << 16) ^ (b << 8) ^ c) * 0x9E3779B1) >>> (32 - TRIGRAM_BUCKET_BITS);
+    }
+
+    // Captures the lines stored so far, to be filtered on another thread while the EDT keeps appending.
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this.chunks.toArray(new Chunk[0]), this.firstSeq, this.lineCount);
+    }
+
+    // Drops whole chunks from the front until the store fits the limits (0 = no limit). The chunk
+    // being appended to is never dropped. Evicted chunks are handed to the consumer, if any.
+    public int trim(final int maxLines, final long maxBytes, final Consumer<Chunk> evictionConsumer)
+    {
+        int evicted = 0;
+
+        while (this.chunks.size() > 1 && isOverLimit(maxLines, maxBytes))
+        {
+            final Chunk chunk = this.chunks.remove(0);
+            this.firstSeq += chunk.count;
+            this.lineCount -= chunk.count;
+            this.memoryBytes -= chunk.getMemoryBytes();
+            evicted += chunk.count;
+
+            if (evictionConsumer != null)
+            {
+                evictionConsumer.accept(chunk);
+            }
+        }
+
+        if (evicted > 0)
+        {
+            // The longest line may have gone with the evicted chunks.
+            this.maxLineLength = 0;
+            for (final Chunk chunk : this.chunks)
+            {
+                this.maxLineLength = Math.max(this.maxLineLength, chunk.maxLineLength);
+            }
+        }
+
+        return evicted;
+    }
+
+    private boolean isOverLimit(final int maxLines, final long maxBytes)
+    {
+        return (maxLines > 0 && this.lineCount > maxLines) || (maxBytes > 0 && this.memoryBytes > maxBytes);
+    }
+
+    public long getMemoryBytes()
+    {
+        return this.memoryBytes;
+    }
+
+    public void clear()
+    {
+        this.firstSeq += this.lineCount;
+        this.chunks.clear();
+        this.lineCount = 0;
+        this.memoryBytes = 0;
+        this.maxLineLength = 0;
+    }
+
+    // Once evicted a chunk is never written to again, so it can be read from any thread.
+    public static final class Chunk
+    {
+        private final int[] offsets = new int[CHUNK_LINES + 1];
+        private final byte[] colors = new byte[CHUNK_LINES];
+        private final short[] types = new short[CHUNK_LINES];
+        private final short[] messageClasses = new short[CHUNK_LINES];
+        private char[] arena = new char[INITIAL_ARENA_SIZE];
+        private int count = 0;
+        private int maxLineLength = 0;
+
+        // Lines containing each hashed trigram of their folded text, ascending and listed once per line.
+        // Once the chunk is full the lists are packed as gaps between lines, one byte each below 128.
+        private short[][] postings = new short[TRIGRAM_BUCKETS][];
+        private short[] postingCounts = new short[TRIGRAM_BUCKETS];
+        private int[] packedStarts = null;
+        private byte[] packed = null;
+        private long indexBytes = TRIGRAM_BUCKETS * 6L;
+
+        public int getLineCount()
+        {
+            return this.count;
+        }
+
+        public String getLineText(final int line)
+        {
+            return new String(this.arena, this.offsets[line], this.offsets[line + 1] - this.offsets[line]);
+        }
+
+        public void writeTo(final Writer writer) throws IOException
+        {
+            for (int line = 0; line < this.count; line++)
+            {
+                writer.write(this.arena, this.offsets[line], this.offsets[line + 1] - this.offsets[line]);
+                writer.write(System.lineSeparator());
+            }
+        }
+
+        private long getMemoryBytes()
+        {
+            return this.arena.length * 2L + this.offsets.length * 4L + this.colors.length + this.types.length * 2L + this.messageClasses.length * 2L
+                    + this.indexBytes;
+        }
+
+        private void add(final CharSequence text, final int start, final int end, final byte colorIndex, final short type, final short messageClass)
+        {
+            final int arenaStart = this.offsets[this.count];
+            final int arenaEnd = arenaStart + (end - start);
+
+            if (arenaEnd > this.arena.length)
+            {
+                this.arena = Arrays.copyOf(this.arena, Math.max(arenaEnd, this.arena.length * 2));
+            }
+
+            if (text instanceof String)
+            {
+                ((String) text).getChars(start, end, this.arena, arenaStart);
+            }
+            else
+            {
+                for (int i = start; i < end; i++)
+                {
+                    this.arena[arenaStart + i - start] = text.charAt(i);
+                }
+            }
+
+            this.maxLineLength = Math.max(this.maxLineLength, end - start);
+            this.colors[this.count] = colorIndex;
+            this.types[this.count] = type;
+            this.messageClasses[this.count] = messageClass;
+            indexLine(this.count, arenaStart, arenaEnd);
+            this.count++;
+            this.offsets[this.count] = arenaEnd;
+
+            if (this.count == CHUNK_LINES)
+            {
+                packPostings();
+            }
+        }
+
+        private void indexLine(final int line, final int start, final int end)
+        {
+            if (end - start < 3)
+            {
+                return;
+            }
+
+            char a = fold(this.arena[start]);
+            char b = fold(this.arena[start + 1]);
+            for (int i = start + 2; i < end; i++)
+            {
+                final char c = fold(this.arena[i]);
+                addPosting(bucketOf(a, b, c), line);
+                a = b;
+                b = c;
+            }
+        }
+
+        private void addPosting(final int bucket, final int line)
+        {
+            short[] list = this.postings[bucket];
+            final int listed = this.postingCounts[bucket];
+            if (listed > 0 && list[listed - 1] == line)
+            {
+                return;
+            }
+
+            if (list == null || listed == list.length)
+            {
+                final int capacity = list == null ? 4 : Math.min(CHUNK_LINES, listed * 2);
+                this.indexBytes += (list == null ? 16 : 0) + (capacity - listed) * 2L;
+                list = list == null ? new short[capacity] : Arrays.copyOf(list, capacity);
+                this.postings[bucket] = list;
+            }
+
+            list[listed] = (short) line;
+            this.postingCounts[bucket] = (short) (listed + 1);
+        }
+
+        private void packPostings()
+        {
+            int size = 0;
+            for (int bucket = 0; bucket < TRIGRAM_BUCKETS; bucket++)
+            {
+                int previous = -1;
+                for (int i = 0; i < this.postingCounts[bucket]; i++)
+                {
+                    size += this.postings[bucket][i] - previous < 128 ? 1 : 2;
+                    previous = this.postings[bucket][i];
+                }
+            }
+
+            this.packedStarts = new int[TRIGRAM_BUCKETS + 1];
+            this.packed = new byte[size];
+            int position = 0;
+            for (int bucket = 0; bucket < TRIGRAM_BUCKETS; bucket++)
+            {
+                this.packedStarts[bucket] = position;
+                int previous = -1;
+                for (int i = 0; i < this.postingCounts[bucket]; i++)
+                {
+                    final int gap = this.postings[bucket][i] - previous;
+                    if (gap < 128)
+                    {
+                        this.packed[position++] = (byte) gap;
+                    }
+                    else
+                    {
+                        this.packed[position++] = (byte) (0x80 | (gap >>> 7));
+                        this.packed[position++] = (byte) (gap & 0x7F);
+                    }
+                    previous = this.postings[bucket][i];
+                }
+            }
+            this.packedStarts[TRIGRAM_BUCKETS] = position;
+
+            this.postings = null;
+            this.postingCounts = null;
+            this.indexBytes = this.packedStarts.length * 4L + this.packed.length;
+        }
+
+        // Zero only for an empty list, otherwise grows with its length.
+        private int sizeOf(final int bucket)
+        {
+            return this.packed != null ? this.packedStarts[bucket + 1] - this.packedStarts[bucket] : this.postingCounts[bucket];
+        }
+
+        private int linesOf(final int bucket, final int[] lines)
+        {
+            if (this.packed == null)
+            {
+                final int listed = this.postingCounts[bucket];
+                for (int i = 0; i < listed; i++)
+                {
+                    lines[i] = this.postings[bucket][i];
+                }
+                return listed;
+            }
+
+            int listed = 0;
+            int line = -1;
+            for (int i = this.packedStarts[bucket]; i < this.packedStarts[bucket + 1]; i++)
+            {
+                int gap = this.packed[i];
+                if (gap < 0)
+                {
+                    gap = ((gap & 0x7F) << 7) | this.packed[++i];
+                }
+                line += gap;
+                lines[listed++] = line;
+            }
+            return listed;
+        }
+
+        // Lines from fromLine on that hold every probed trigram are candidates, each is then read to find
+        // the actual occurrences. Short search text can't use the index and reads every line.
+        private void find(final char[] needle, final int[] buckets, final int fromLine, final long chunkSeq, final Hits hits, final int[] lines, final long[][] masks)
+        {
+            if (buckets == null)
+            {
+                for (int line = fromLine; line < this.count; line++)
+                {
+                    findInLine(needle, line, chunkSeq, hits);
+                }
+                return;
+            }
+
+            // The rarest bucket drives the scan, the next rarest ones rule out lines before they are read.
+            final int[] probes = new int[Math.min(buckets.length, 1 + TRIGRAM_PROBES)];
+            int probeCount = 0;
+            for (final int bucket : buckets)
+            {
+                final int size = sizeOf(bucket);
+                if (size == 0)
+                {
+                    return;
+                }
+                if (indexOf(probes, probeCount, bucket) >= 0 || (probeCount == probes.length && sizeOf(probes[probeCount - 1]) <= size))
+                {
+                    continue;
+                }
+
+                int position = probeCount < probes.length ? probeCount++ : probeCount - 1;
+                while (position > 0 && sizeOf(probes[position - 1]) > size)
+                {
+                    probes[position] = probes[position - 1];
+                    position--;
+                }
+                probes[position] = bucket;
+            }
+
+            for (int p = 1; p < probeCount; p++)
+            {
+                final long[] mask = masks[p - 1];
+                Arrays.fill(mask, 0);
+                final int listed = linesOf(probes[p], lines);
+                for (int i = 0; i < listed; i++)
+                {
+                    mask[lines[i] >>> 6] |= 1L << lines[i];
+                }
+            }
+
+            final int listed = linesOf(probes[0], lines);
+            candidates:
+            for (int i = 0; i < listed; i++)
+            {
+                final int line = lines[i];
+                if (line < fromLine)
+                {
+                    continue;
+                }
+
+                for (int p = 1; p < probeCount; p++)
+                {
+                    if ((masks[p - 1][line >>> 6] & (1L << line)) == 0)
+                    {
+                        continue candidates;
+                    }
+                }
+
+                findInLine(needle, line, chunkSeq, hits);
+            }
+        }
+
+        private static int indexOf(final int[] values, final int count, final int value)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (values[i] == value)
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void findInLine(final char[] needle, final int line, final long chunkSeq, final Hits hits)
+        {
+            final int start = this.offsets[line];
+            final int last = this.offsets[line + 1] - needle.length;
+            int i = start;
+            outer:
+            while (i <= last)
+            {
+                for (int j = 0; j < needle.length; j++)
+                {
+                    if (fold(this.arena[i + j]) != needle[j])
+                    {
+                        i++;
+                        continue outer;
+                    }
+                }
+
+                hits.add(chunkSeq + line, i - start);
+                i += needle.length;
+            }
+        }
+    }
+
+    // Where a search matched, in order: the sequence number of the line and the column of each occurrence.
+    // Numbered from the oldest hit still held, dropBefore() shifts the numbers down.
+    public static final class Hits
+    {
+        private long[] seqs = new long[64];
+        private int[] columns = new int[64];
+        private int start = 0;
+        private int count = 0;
+        private final int length;
+
+        public Hits(final int length)
+        {
+            this.length = length;
+        }
+
+        // Length of the matched text.
+        public int getLength()
+        {
+            return this.length;
+        }
+
+        public int size()
+        {
+            return this.count;
+        }
+
+        public long getSeq(final int hit)
+        {
+            return this.seqs[this.start + hit];
+        }
+
+        public int getColumn(final int hit)
+        {
+            return this.columns[this.start + hit];
+        }
+
+        // First hit on line seq or a later one.
+        public int indexOf(final long seq)
+        {
+            int low = 0;
+            int high = this.count;
+            while (low < high)
+            {
+                final int middle = (low + high) >>> 1;
+                if (getSeq(middle) < seq)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+
+        // Returns how many hits were dropped.
+        public int dropBefore(final long seq)
+        {
+            final int dropped = indexOf(seq);
+            this.start += dropped;
+            this.count -= dropped;
+            return dropped;
+        }
+
+        private void add(final long seq, final int column)
+        {
+            if (this.start + this.count == this.seqs.length)
+            {
+                if (this.start > this.seqs.length / 2)
+                {
+                    System.arraycopy(this.seqs, this.start, this.seqs, 0, this.count);
+                    System.arraycopy(this.columns, this.start, this.columns, 0, this.count);
+                }
+                else
+                {
+                    final long[] grownSeqs = new long[this.seqs.length * 2];
+                    final int[] grownColumns = new int[this.columns.length * 2];
+                    System.arraycopy(this.seqs, this.start, grownSeqs, 0, this.count);
+                    System.arraycopy(this.columns, this.start, grownColumns, 0, this.count);
+                    this.seqs = grownSeqs;
+                    this.columns = grownColumns;
+                }
+                this.start = 0;
+            }
+
+            this.seqs[this.start + this.count] = seq;
+            this.columns[this.start + this.count] = column;
+            this.count++;
+        }
+    }
+
+    // Only reads the per line ids, which are never written again once a line is stored.
+    public static final class Snapshot
+    {
+        private final Chunk[] chunks;
+        private final long firstSeq;
+        private final int lineCount;
+
+        private Snapshot(final Chunk[] chunks, final long firstSeq, final int lineCount)
+        {
+            this.chunks = chunks;
+            this.firstSeq = firstSeq;
+            this.lineCount = lineCount;
+        }
+
+        public long getFirstSeq()
+        {
+            return this.firstSeq;
+        }
+
+        public int getLineCount()
+        {
+            return this.lineCount;
+        }
+
+        // Sequence numbers of the lines the filter lets through, in order.
+        public long[] filter(final BTC_MessageFilter filter)
+        {
+            final long[] seqs = new long[this.lineCount];
+            int visible = 0;
+
+            for (int index = 0; index < this.lineCount; index++)
+            {
+                final Chunk chunk = this.chunks[index >>> CHUNK_SHIFT];
+                final int line = index & (CHUNK_LINES - 1);
+
+                if (!filter.isHidden(chunk.types[line] & 0xFFFF, chunk.messageClasses[line] & 0xFFFF))
+                {
+                    seqs[visible++] = this.firstSeq + index;
+                }
+            }
+
+            return Arrays.copyOf(seqs, visible);
+        }
+    }
+}
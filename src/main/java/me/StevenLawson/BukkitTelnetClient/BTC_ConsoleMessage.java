@@ -24,17 +24,18 @@ public class BTC_ConsoleMessage
 {
     private final String message;
     private Color color;
+    private int paletteIndex;
 
     public BTC_ConsoleMessage(final String message)
     {
-        this.message = message;
-        this.color = Color.BLACK;
+        this(message, Color.BLACK);
     }
 
     public BTC_ConsoleMessage(final String message, final Color color)
     {
         this.message = message;
         this.color = color;
+        this.paletteIndex = BTC_ConsolePalette.indexOf(color);
     }
 
     public String getMessage()
@@ -47,8 +48,15 @@ public class BTC_ConsoleMessage
         return color;
     }
 
+    // Resolved when the color is set, not for every line the message is drawn as.
+    public int getPaletteIndex()
+    {
+        return paletteIndex;
+    }
+
     public void setColor(Color color)
     {
         this.color = color;
+        this.paletteIndex = BTC_ConsolePalette.indexOf(color);
     }
 }
@@ -0,0 +1,92 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Every color the console draws with, each given a byte sized index the first time it's seen.
+// Messages resolve their index once, lines store it and painting looks the color back up.
+// The tables are immutable and replaced on the rare new color, so lookups never lock.
+public final class BTC_ConsolePalette
+{
+    public static final int MAX_SIZE = 256;
+    public static final int DEFAULT_INDEX = 0;
+
+    private static volatile Color[] colors = {Color.BLACK};
+    private static volatile Map<Color, Integer> indexes = createIndexes(colors);
+
+    private BTC_ConsolePalette()
+    {
+        throw new AssertionError();
+    }
+
+    // The default (black) once the palette is full.
+    public static int indexOf(final Color color)
+    {
+        if (color == null)
+        {
+            return DEFAULT_INDEX;
+        }
+
+        final Integer index = indexes.get(color);
+        return index != null ? index : add(color);
+    }
+
+    public static Color get(final int index)
+    {
+        final Color[] _colors = colors;
+        return index < _colors.length ? _colors[index] : _colors[DEFAULT_INDEX];
+    }
+
+    private static synchronized int add(final Color color)
+    {
+        final Integer index = indexes.get(color);
+        if (index != null)
+        {
+            return index;
+        }
+
+        if (colors.length == MAX_SIZE)
+        {
+            return DEFAULT_INDEX;
+        }
+
+        final Color[] _colors = Arrays.copyOf(colors, colors.length + 1);
+        _colors[_colors.length - 1] = color;
+
+        // Colors first, a reader that finds the new index must be able to get its color.
+        colors = _colors;
+        indexes = createIndexes(_colors);
+
+        return _colors.length - 1;
+    }
+
+    private static Map<Color, Integer> createIndexes(final Color[] _colors)
+    {
+        final Map<Color, Integer> _indexes = new HashMap<>();
+        for (int i = 0; i < _colors.length; i++)
+        {
+            _indexes.put(_colors[i], i);
+        }
+        return _indexes;
+    }
+}
@@ -0,0 +1,752 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.*;
+import javax.swing.text.Segment;
+
+// Console output that only paints the rows inside the clip, whatever the size of the line store.
+// The store keeps every line, the view shows the ones its filter lets through.
+public class BTC_ConsoleView extends JComponent implements Scrollable
+{
+    private static final ExecutorService FILTER_EXECUTOR = Executors.newSingleThreadExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "BTC-ConsoleFilter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Color DEFAULT_SELECTION_COLOR = new Color(184, 207, 229);
+    private static final Color HIT_COLOR = new Color(255, 238, 130);
+    private static final Color CURRENT_HIT_COLOR = new Color(255, 170, 70);
+
+    private final BTC_ConsoleLineStore lineStore = new BTC_ConsoleLineStore();
+    private final Segment segment = new Segment();
+
+    private BTC_MessageFilter filter = BTC_MessageFilter.NONE;
+    private int filterGeneration = 0;
+
+    // Sequence numbers of the visible rows, in order, starting at rowSeqs[rowStart].
+    private long[] rowSeqs = new long[1024];
+    private int rowStart = 0;
+    private int rowCount = 0;
+    // First stored line the filter hasn't looked at yet.
+    private long nextSeq = 0;
+
+    private int lineHeight = 1;
+    private int ascent = 0;
+    private int charWidth = 1;
+
+    // Selection endpoints as (line sequence number, column), the anchor is where the drag started.
+    private long anchorSeq = -1;
+    private int anchorColumn = 0;
+    private long caretSeq = -1;
+    private int caretColumn = 0;
+
+    // Occurrences of the search text, kept up to date as lines are added and trimmed. Null if not searching.
+    private String searchText = null;
+    private BTC_ConsoleLineStore.Hits hits = null;
+    // First stored line the search hasn't looked at yet.
+    private long searchedSeq = 0;
+    private int currentHit = -1;
+
+    public BTC_ConsoleView()
+    {
+        setOpaque(true);
+        setFocusable(true);
+        setBackground(getUIColor("TextPane.background", Color.WHITE));
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        setCursor(Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR));
+
+        final MouseAdapter mouseHandler = new MouseAdapter()
+        {
+            @Override
+            public void mousePressed(final MouseEvent event)
+            {
+                if (!SwingUtilities.isLeftMouseButton(event))
+                {
+                    return;
+                }
+
+                requestFocusInWindow();
+
+                final int row = rowAtPoint(event.getPoint());
+                if (row < 0)
+                {
+                    clearSelection();
+                    return;
+                }
+
+                final long seq = seqAt(row);
+                final int column = columnAtPoint(row, event.getX());
+
+                if (event.getClickCount() >= 2)
+                {
+                    anchorSeq = seq;
+                    anchorColumn = 0;
+                    caretSeq = seq;
+                    caretColumn = lineStore.getLineLength(indexAt(row));
+                }
+                else if (event.isShiftDown() && anchorSeq >= 0)
+                {
+                    caretSeq = seq;
+                    caretColumn = column;
+                }
+                else
+                {
+                    anchorSeq = seq;
+                    anchorColumn = column;
+                    caretSeq = seq;
+                    caretColumn = column;
+                }
+
+                repaint();
+            }
+
+            @Override
+            public void mouseDragged(final MouseEvent event)
+            {
+                if (!SwingUtilities.isLeftMouseButton(event) || anchorSeq < 0 || rowCount == 0)
+                {
+                    return;
+                }
+
+                final int row = Math.max(0, Math.min(rowCount - 1, (event.getY() - getInsets().top) / lineHeight));
+                caretSeq = seqAt(row);
+                caretColumn = columnAtPoint(row, event.getX());
+
+                scrollRectToVisible(new Rectangle(event.getX(), event.getY(), 1, 1));
+                repaint();
+            }
+        };
+        addMouseListener(mouseHandler);
+        addMouseMotionListener(mouseHandler);
+
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_C, InputEvent.CTRL_DOWN_MASK), "copy");
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_INSERT, InputEvent.CTRL_DOWN_MASK), "copy");
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_A, InputEvent.CTRL_DOWN_MASK), "select-all");
+        getActionMap().put("copy", new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(final ActionEvent event)
+            {
+                copy();
+            }
+        });
+        getActionMap().put("select-all", new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(final ActionEvent event)
+            {
+                selectAll();
+            }
+        });
+    }
+
+    private static Color getUIColor(final String key, final Color fallback)
+    {
+        final Color color = UIManager.getColor(key);
+        return color != null ? color : fallback;
+    }
+
+    @Override
+    public void setFont(final Font font)
+    {
+        super.setFont(font);
+
+        final FontMetrics metrics = getFontMetrics(font);
+        this.lineHeight = Math.max(1, metrics.getHeight());
+        this.ascent = metrics.getAscent();
+        this.charWidth = Math.max(1, metrics.charWidth('M'));
+
+        revalidate();
+        repaint();
+    }
+
+    public BTC_ConsoleLineStore getLineStore()
+    {
+        return this.lineStore;
+    }
+
+    // Call once after a batch of appends to the line store. With follow set, a view that was showing
+    // the last line scrolls to the new last line, once per batch. A view scrolled up stays put.
+    public void linesAppended(final boolean follow)
+    {
+        final JViewport viewport = getViewport();
+        final boolean scroll = follow && viewport != null && isAtBottom(viewport.getViewRect());
+
+        searchNewLines();
+        filterNewLines();
+        revalidate();
+        repaint();
+
+        if (scroll)
+        {
+            scrollToBottom(viewport);
+        }
+    }
+
+    // Keeps the rows the user is looking at in place when lines are dropped from the top.
+    public void linesEvicted(final int count)
+    {
+        if (count <= 0)
+        {
+            return;
+        }
+
+        final int droppedRows = dropRowsBefore(this.lineStore.getFirstSeq());
+        if (this.hits != null)
+        {
+            final int droppedHits = this.hits.dropBefore(this.lineStore.getFirstSeq());
+            this.currentHit = this.currentHit >= droppedHits ? this.currentHit - droppedHits : -1;
+        }
+
+        final JViewport viewport = getViewport();
+        if (viewport != null && droppedRows > 0)
+        {
+            final Point position = viewport.getViewPosition();
+            position.y = Math.max(0, position.y - droppedRows * this.lineHeight);
+            viewport.setViewPosition(position);
+        }
+
+        revalidate();
+        repaint();
+    }
+
+    public void clear()
+    {
+        this.lineStore.clear();
+        this.rowStart = 0;
+        this.rowCount = 0;
+        this.nextSeq = this.lineStore.getFirstSeq();
+        if (this.hits != null)
+        {
+            this.hits = new BTC_ConsoleLineStore.Hits(this.searchText.length());
+            this.searchedSeq = this.nextSeq;
+            this.currentHit = -1;
+        }
+        clearSelection();
+        revalidate();
+        repaint();
+    }
+
+    // Finds every occurrence of text in the stored lines, ignoring case, and highlights them. Lines added
+    // later are searched as they come in. Null or empty text ends the search. Returns the number of hits.
+    public int find(final String text)
+    {
+        this.currentHit = -1;
+        if (text == null || text.isEmpty())
+        {
+            this.searchText = null;
+            this.hits = null;
+            repaint();
+            return 0;
+        }
+
+        this.searchText = text;
+        this.hits = new BTC_ConsoleLineStore.Hits(text.length());
+        this.searchedSeq = this.lineStore.getFirstSeq();
+        searchNewLines();
+        repaint();
+        return this.hits.size();
+    }
+
+    // Null if not searching.
+    public String getSearchText()
+    {
+        return this.searchText;
+    }
+
+    public int getHitCount()
+    {
+        return this.hits != null ? this.hits.size() : 0;
+    }
+
+    // Index of the hit last moved to, -1 if none.
+    public int getCurrentHit()
+    {
+        return this.currentHit;
+    }
+
+    // Moves to the next (or previous) hit on a row the filter shows, wrapping around, and scrolls to it.
+    // Without a current hit it starts from the rows in view. False if no hit is on a visible row.
+    public boolean findNext(final boolean forward)
+    {
+        if (this.hits == null || this.hits.size() == 0 || this.rowCount == 0)
+        {
+            return false;
+        }
+
+        int hit;
+        if (this.currentHit >= 0)
+        {
+            hit = this.currentHit + (forward ? 1 : -1);
+        }
+        else
+        {
+            final JViewport viewport = getViewport();
+            final Rectangle viewRect = viewport != null ? viewport.getViewRect() : new Rectangle(0, 0, 0, 0);
+            final int topRow = Math.max(0, Math.min(this.rowCount - 1, (viewRect.y - getInsets().top) / this.lineHeight));
+            final int bottomRow = Math.max(topRow, Math.min(this.rowCount - 1, (viewRect.y + viewRect.height - getInsets().top) / this.lineHeight - 1));
+            hit = forward ? this.hits.indexOf(seqAt(topRow)) : this.hits.indexOf(seqAt(bottomRow) + 1) - 1;
+        }
+
+        for (int tries = 0; tries < this.hits.size(); tries++)
+        {
+            hit = Math.floorMod(hit, this.hits.size());
+            final long seq = this.hits.getSeq(hit);
+            final int row = rowOf(seq);
+            if (row < this.rowCount && seqAt(row) == seq)
+            {
+                this.currentHit = hit;
+                scrollToHit(row, hit);
+                repaint();
+                return true;
+            }
+            hit += forward ? 1 : -1;
+        }
+
+        return false;
+    }
+
+    private void searchNewLines()
+    {
+        if (this.hits == null)
+        {
+            return;
+        }
+
+        this.lineStore.find(this.searchText, this.searchedSeq, this.hits);
+        this.searchedSeq = this.lineStore.getFirstSeq() + this.lineStore.getLineCount();
+    }
+
+    // Shows the hit with a couple of lines around it.
+    private void scrollToHit(final int row, final int hit)
+    {
+        final JViewport viewport = getViewport();
+        if (viewport != null)
+        {
+            viewport.getParent().validate();
+        }
+
+        this.lineStore.getLine(indexAt(row), this.segment);
+        final Rectangle bounds = getHitBounds(row, hit, getFontMetrics(getFont()));
+        bounds.y -= 2 * this.lineHeight;
+        bounds.height += 4 * this.lineHeight;
+        scrollRectToVisible(bounds);
+    }
+
+    // The segment must hold the row's line.
+    private Rectangle getHitBounds(final int row, final int hit, final FontMetrics metrics)
+    {
+        final Insets insets = getInsets();
+        final int from = Math.min(this.hits.getColumn(hit), this.segment.count);
+        final int to = Math.min(from + this.hits.getLength(), this.segment.count);
+        final int x1 = insets.left + metrics.charsWidth(this.segment.array, this.segment.offset, from);
+        final int x2 = insets.left + metrics.charsWidth(this.segment.array, this.segment.offset, to);
+
+        return new Rectangle(x1, insets.top + row * this.lineHeight, x2 - x1, this.lineHeight);
+    }
+
+    // Re-filters the whole history on a background thread, the current rows stay up until the new ones are ready.
+    public void setFilter(final BTC_MessageFilter filter)
+    {
+        final int generation = ++this.filterGeneration;
+        final BTC_ConsoleLineStore.Snapshot snapshot = this.lineStore.snapshot();
+
+        FILTER_EXECUTOR.execute(() ->
+        {
+            final long[] seqs = snapshot.filter(filter);
+            SwingUtilities.invokeLater(() -> swapRows(generation, filter, seqs, snapshot.getFirstSeq() + snapshot.getLineCount()));
+        });
+    }
+
+    public BTC_MessageFilter getFilter()
+    {
+        return this.filter;
+    }
+
+    private void swapRows(final int generation, final BTC_MessageFilter filter, final long[] seqs, final long snapshotEnd)
+    {
+        if (generation != this.filterGeneration)
+        {
+            return;
+        }
+
+        // Keep the line at the top of the viewport where it is, or stay at the bottom.
+        final JViewport viewport = getViewport();
+        final Rectangle viewRect = viewport != null ? viewport.getViewRect() : null;
+        long topSeq = -1;
+        boolean atBottom = true;
+        if (viewRect != null && this.rowCount > 0)
+        {
+            atBottom = isAtBottom(viewRect);
+            topSeq = seqAt(Math.max(0, Math.min(this.rowCount - 1, (viewRect.y - getInsets().top) / this.lineHeight)));
+        }
+
+        this.filter = filter;
+        this.rowSeqs = seqs.length > 0 ? seqs : new long[1024];
+        this.rowStart = 0;
+        this.rowCount = seqs.length;
+        this.nextSeq = snapshotEnd;
+        dropRowsBefore(this.lineStore.getFirstSeq());
+        filterNewLines();
+
+        revalidate();
+        repaint();
+
+        if (viewRect != null)
+        {
+            viewport.getParent().validate();
+
+            final int maxY = Math.max(0, getHeight() - viewRect.height);
+            final int y = atBottom ? maxY : Math.min(maxY, getInsets().top + rowOf(topSeq) * this.lineHeight);
+            viewport.setViewPosition(new Point(viewRect.x, y));
+        }
+    }
+
+    // Within a line of the end of the rows, before any new ones are laid out.
+    private boolean isAtBottom(final Rectangle viewRect)
+    {
+        return viewRect.y + viewRect.height >= getPreferredSize().height - this.lineHeight;
+    }
+
+    private void scrollToBottom(final JViewport viewport)
+    {
+        // Lay the scroll pane out now so the new height is known, the queued revalidate then has nothing to do.
+        viewport.getParent().validate();
+
+        final Rectangle viewRect = viewport.getViewRect();
+        final int maxY = Math.max(0, getHeight() - viewRect.height);
+        if (viewRect.y != maxY)
+        {
+            viewport.setViewPosition(new Point(viewRect.x, maxY));
+        }
+    }
+
+    private void filterNewLines()
+    {
+        final long firstSeq = this.lineStore.getFirstSeq();
+        final long endSeq = firstSeq + this.lineStore.getLineCount();
+
+        for (long seq = Math.max(this.nextSeq, firstSeq); seq < endSeq; seq++)
+        {
+            final int index = (int) (seq - firstSeq);
+            if (!this.filter.isHidden(this.lineStore.getType(index), this.lineStore.getMessageClass(index)))
+            {
+                appendRow(seq);
+            }
+        }
+
+        this.nextSeq = endSeq;
+    }
+
+    private void appendRow(final long seq)
+    {
+        if (this.rowStart + this.rowCount == this.rowSeqs.length)
+        {
+            if (this.rowStart > this.rowSeqs.length / 2)
+            {
+                System.arraycopy(this.rowSeqs, this.rowStart, this.rowSeqs, 0, this.rowCount);
+            }
+            else
+            {
+                final long[] grown = new long[this.rowSeqs.length * 2];
+                System.arraycopy(this.rowSeqs, this.rowStart, grown, 0, this.rowCount);
+                this.rowSeqs = grown;
+            }
+            this.rowStart = 0;
+        }
+
+        this.rowSeqs[this.rowStart + this.rowCount++] = seq;
+    }
+
+    private int dropRowsBefore(final long seq)
+    {
+        final int dropped = rowOf(seq);
+        this.rowStart += dropped;
+        this.rowCount -= dropped;
+
+        return dropped;
+    }
+
+    // First row showing seq or a later line.
+    private int rowOf(final long seq)
+    {
+        int low = 0;
+        int high = this.rowCount;
+        while (low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (seqAt(middle) < seq)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private long seqAt(final int row)
+    {
+        return this.rowSeqs[this.rowStart + row];
+    }
+
+    // Line store index of a visible row.
+    private int indexAt(final int row)
+    {
+        return (int) (seqAt(row) - this.lineStore.getFirstSeq());
+    }
+
+    private JViewport getViewport()
+    {
+        final Container parent = SwingUtilities.getUnwrappedParent(this);
+        return parent instanceof JViewport ? (JViewport) parent : null;
+    }
+
+    public boolean hasSelection()
+    {
+        return this.anchorSeq >= 0 && (this.anchorSeq != this.caretSeq || this.anchorColumn != this.caretColumn);
+    }
+
+    public void clearSelection()
+    {
+        this.anchorSeq = -1;
+        this.caretSeq = -1;
+        repaint();
+    }
+
+    public void selectAll()
+    {
+        if (this.rowCount == 0)
+        {
+            return;
+        }
+
+        this.anchorSeq = seqAt(0);
+        this.anchorColumn = 0;
+        this.caretSeq = seqAt(this.rowCount - 1);
+        this.caretColumn = this.lineStore.getLineLength(indexAt(this.rowCount - 1));
+        repaint();
+    }
+
+    public String getSelectedText()
+    {
+        if (!hasSelection())
+        {
+            return null;
+        }
+
+        final boolean forward = this.anchorSeq < this.caretSeq || (this.anchorSeq == this.caretSeq && this.anchorColumn <= this.caretColumn);
+        final long startSeq = forward ? this.anchorSeq : this.caretSeq;
+        final int startColumn = forward ? this.anchorColumn : this.caretColumn;
+        final long endSeq = forward ? this.caretSeq : this.anchorSeq;
+        final int endColumn = forward ? this.caretColumn : this.anchorColumn;
+
+        final StringBuilder text = new StringBuilder();
+        final int startRow = rowOf(startSeq);
+        for (int row = startRow; row < this.rowCount && seqAt(row) <= endSeq; row++)
+        {
+            final long seq = seqAt(row);
+            final int length = this.lineStore.getLineLength(indexAt(row));
+            final int from = seq == startSeq ? Math.min(startColumn, length) : 0;
+            final int to = seq == endSeq ? Math.min(endColumn, length) : length;
+
+            if (row != startRow)
+            {
+                text.append(System.lineSeparator());
+            }
+
+            this.lineStore.getLine(indexAt(row), this.segment);
+            text.append(this.segment.array, this.segment.offset + from, Math.max(0, to - from));
+        }
+
+        return text.toString();
+    }
+
+    public void copy()
+    {
+        final String selectedText = getSelectedText();
+        if (selectedText != null)
+        {
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(selectedText), null);
+        }
+    }
+
+    private int rowAtPoint(final Point point)
+    {
+        final int y = point.y - getInsets().top;
+        if (y < 0)
+        {
+            return -1;
+        }
+
+        final int row = y / this.lineHeight;
+        return row < this.rowCount ? row : -1;
+    }
+
+    private int columnAtPoint(final int row, final int x)
+    {
+        final FontMetrics metrics = getFontMetrics(getFont());
+        this.lineStore.getLine(indexAt(row), this.segment);
+
+        int width = getInsets().left;
+        for (int i = 0; i < this.segment.count; i++)
+        {
+            final int w = metrics.charWidth(this.segment.array[this.segment.offset + i]);
+            if (x < width + w / 2)
+            {
+                return i;
+            }
+            width += w;
+        }
+
+        return this.segment.count;
+    }
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        final Insets insets = getInsets();
+        return new Dimension(
+                insets.left + insets.right + (this.lineStore.getMaxLineLength() + 1) * this.charWidth,
+                insets.top + insets.bottom + this.rowCount * this.lineHeight);
+    }
+
+    @Override
+    protected void paintComponent(final Graphics graphics)
+    {
+        final Rectangle clip = graphics.getClipBounds();
+        graphics.setColor(getBackground());
+        graphics.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        if (this.rowCount == 0)
+        {
+            return;
+        }
+
+        final Insets insets = getInsets();
+        final int firstRow = Math.max(0, (clip.y - insets.top) / this.lineHeight);
+        final int lastRow = Math.min(this.rowCount - 1, (clip.y + clip.height - insets.top) / this.lineHeight);
+
+        final FontMetrics metrics = graphics.getFontMetrics(getFont());
+        graphics.setFont(getFont());
+
+        final boolean selection = hasSelection();
+        final boolean forward = this.anchorSeq < this.caretSeq || (this.anchorSeq == this.caretSeq && this.anchorColumn <= this.caretColumn);
+        final long startSeq = forward ? this.anchorSeq : this.caretSeq;
+        final int startColumn = forward ? this.anchorColumn : this.caretColumn;
+        final long endSeq = forward ? this.caretSeq : this.anchorSeq;
+        final int endColumn = forward ? this.caretColumn : this.anchorColumn;
+        final Color selectionColor = getUIColor("TextPane.selectionBackground", DEFAULT_SELECTION_COLOR);
+        Color lineColor = null;
+        final int hitCount = this.hits != null ? this.hits.size() : 0;
+        int hit = this.hits != null ? this.hits.indexOf(seqAt(firstRow)) : 0;
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            final int y = insets.top + row * this.lineHeight;
+            final int index = indexAt(row);
+            this.lineStore.getLine(index, this.segment);
+
+            final long seq = seqAt(row);
+            if (selection && seq >= startSeq && seq <= endSeq)
+            {
+                final int from = seq == startSeq ? Math.min(startColumn, this.segment.count) : 0;
+                final int to = seq == endSeq ? Math.min(endColumn, this.segment.count) : this.segment.count;
+                final int x1 = insets.left + metrics.charsWidth(this.segment.array, this.segment.offset, from);
+                int x2 = insets.left + metrics.charsWidth(this.segment.array, this.segment.offset, to);
+                if (seq != endSeq)
+                {
+                    x2 += this.charWidth;
+                }
+
+                graphics.setColor(selectionColor);
+                graphics.fillRect(x1, y, x2 - x1, this.lineHeight);
+                lineColor = null;
+            }
+
+            // Hits on lines the filter hides are stepped over.
+            for (; hit < hitCount && this.hits.getSeq(hit) <= seq; hit++)
+            {
+                if (this.hits.getSeq(hit) == seq)
+                {
+                    final Rectangle bounds = getHitBounds(row, hit, metrics);
+                    graphics.setColor(hit == this.currentHit ? CURRENT_HIT_COLOR : HIT_COLOR);
+                    graphics.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+                    lineColor = null;
+                }
+            }
+
+            // Palette colors are shared instances, runs of same colored lines set it once.
+            final Color color = this.lineStore.getColor(index);
+            if (color != lineColor)
+            {
+                graphics.setColor(color);
+                lineColor = color;
+            }
+            graphics.drawChars(this.segment.array, this.segment.offset, this.segment.count, insets.left, y + this.ascent);
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize()
+    {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(final Rectangle visibleRect, final int orientation, final int direction)
+    {
+        return orientation == SwingConstants.VERTICAL ? this.lineHeight : this.charWidth;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(final Rectangle visibleRect, final int orientation, final int direction)
+    {
+        if (orientation == SwingConstants.VERTICAL)
+        {
+            return Math.max(this.lineHeight, (visibleRect.height / this.lineHeight - 1) * this.lineHeight);
+        }
+
+        return Math.max(this.charWidth, visibleRect.width - this.charWidth);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth()
+    {
+        final Container parent = SwingUtilities.getUnwrappedParent(this);
+        return parent instanceof JViewport && parent.getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight()
+    {
+        final Container parent = SwingUtilities.getUnwrappedParent(this);
+        return parent instanceof JViewport && parent.getHeight() > getPreferredSize().height;
+    }
+}
@@ -0,0 +1,435 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.EventQueue;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+// Offline country and ASN lookup. The iptoasn.com ip2asn-combined.tsv dump (start, end, ASN, country,
+// description per line) is compiled once into an index file of fixed size range records sorted by start
+// address, followed by the ASN descriptions. The index is memory mapped and searched by binary search,
+// with the most recent lookups kept in an LRU cache. Lookups run on the database's own thread.
+public final class BTC_GeoIpDatabase
+{
+    private static final String SOURCE_FILE = "ip2asn-combined.tsv";
+    private static final String INDEX_FILE = "ip2asn.idx";
+    private static final int INDEX_MAGIC = 0x46544347;
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int RANGE_SIZE = 16 + 16 + 4 + 2 + 2;
+    private static final int ASN_SIZE = 4 + 4;
+    private static final int CACHE_SIZE = 4096;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "BTC-GeoIpDatabase");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ByteBuffer index = null;
+    private int rangeCount = 0;
+    private int asnCount = 0;
+    private int asnOffset = 0;
+    private int namesOffset = 0;
+
+    private final Map<String, Location> cache = new LinkedHashMap<String, Location>(CACHE_SIZE * 4 / 3 + 1, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Location> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public BTC_GeoIpDatabase()
+    {
+    }
+
+    // Compiles the dump if the index is missing or older than it, then maps the index.
+    public void load(final Runnable callback)
+    {
+        this.executor.execute(() ->
+        {
+            final File source = new File(SOURCE_FILE);
+            final File indexFile = new File(INDEX_FILE);
+
+            try
+            {
+                if (source.isFile() && !isUpToDate(indexFile, source))
+                {
+                    compile(source, indexFile);
+                }
+
+                if (indexFile.isFile())
+                {
+                    open(indexFile);
+                    this.cache.clear();
+                    EventQueue.invokeLater(callback);
+                }
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            }
+        });
+    }
+
+    // Locations of the players' IPs, the callback runs on the EDT. IPs with no known range are left out.
+    public void resolve(final List<PlayerInfo> players, final Consumer<Map<String, Location>> callback)
+    {
+        this.executor.execute(() ->
+        {
+            if (this.index == null)
+            {
+                return;
+            }
+
+            final Map<String, Location> locations = new HashMap<>();
+            for (final PlayerInfo player : players)
+            {
+                final String ip = player.getIp();
+                if (ip == null || locations.containsKey(ip))
+                {
+                    continue;
+                }
+
+                final Location location = lookup(ip);
+                if (location != null)
+                {
+                    locations.put(ip, location);
+                }
+            }
+
+            EventQueue.invokeLater(() -> callback.accept(locations));
+        });
+    }
+
+    private Location lookup(final String ip)
+    {
+        Location location = this.cache.get(ip);
+        if (location == null && !this.cache.containsKey(ip))
+        {
+            final long[] address = BTC_IpAddress.parse(ip);
+            location = address != null ? find(address[0], address[1]) : null;
+            this.cache.put(ip, location);
+        }
+
+        return location;
+    }
+
+    // The last range starting at or before the address, if it also ends at or after it.
+    private Location find(final long high, final long low)
+    {
+        int lowIndex = 0;
+        int highIndex = this.rangeCount - 1;
+        int found = -1;
+
+        while (lowIndex <= highIndex)
+        {
+            final int middle = (lowIndex + highIndex) >>> 1;
+            if (compare(HEADER_SIZE + middle * RANGE_SIZE, high, low) <= 0)
+            {
+                found = middle;
+                lowIndex = middle + 1;
+            }
+            else
+            {
+                highIndex = middle - 1;
+            }
+        }
+
+        if (found < 0)
+        {
+            return null;
+        }
+
+        final int range = HEADER_SIZE + found * RANGE_SIZE;
+        if (compare(range + 16, high, low) < 0)
+        {
+            return null;
+        }
+
+        final int asn = this.index.getInt(range + 32);
+        final byte first = this.index.get(range + 36);
+        final String country = first != 0 ? new String(new char[]
+        {
+            (char) first, (char) this.index.get(range + 37)
+        }) : "";
+
+        return new Location(country, asn, getAsnName(asn));
+    }
+
+    private int compare(final int position, final long high, final long low)
+    {
+        final int result = Long.compareUnsigned(this.index.getLong(position), high);
+        return result != 0 ? result : Long.compareUnsigned(this.index.getLong(position + 8), low);
+    }
+
+    private String getAsnName(final int asn)
+    {
+        int lowIndex = 0;
+        int highIndex = this.asnCount - 1;
+
+        while (lowIndex <= highIndex)
+        {
+            final int middle = (lowIndex + highIndex) >>> 1;
+            final int position = this.asnOffset + middle * ASN_SIZE;
+            final int result = Integer.compareUnsigned(this.index.getInt(position), asn);
+
+            if (result < 0)
+            {
+                lowIndex = middle + 1;
+            }
+            else if (result > 0)
+            {
+                highIndex = middle - 1;
+            }
+            else
+            {
+                final int name = this.namesOffset + this.index.getInt(position + 4);
+                final byte[] bytes = new byte[this.index.getShort(name) & 0xFFFF];
+                for (int i = 0; i < bytes.length; i++)
+                {
+                    bytes[i] = this.index.get(name + 2 + i);
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        return "";
+    }
+
+    private static boolean isUpToDate(final File indexFile, final File source) throws IOException
+    {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE)
+        {
+            return false;
+        }
+
+        try (final DataInputStream input = new DataInputStream(new FileInputStream(indexFile)))
+        {
+            return input.readInt() == INDEX_MAGIC
+                    && input.readInt() == INDEX_VERSION
+                    && input.readLong() == source.length()
+                    && input.readLong() == source.lastModified();
+        }
+    }
+
+    private void open(final File file) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " is too large");
+            }
+
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != INDEX_MAGIC || mapped.getInt(4) != INDEX_VERSION)
+            {
+                throw new IOException(file + " isn't an ip2asn index");
+            }
+
+            final int ranges = mapped.getInt(24);
+            final int asns = mapped.getInt(28);
+            final long names = HEADER_SIZE + (long) ranges * RANGE_SIZE + (long) asns * ASN_SIZE;
+            if (ranges < 0 || asns < 0 || names > mapped.limit())
+            {
+                throw new IOException(file + " is damaged");
+            }
+
+            this.index = mapped;
+            this.rangeCount = ranges;
+            this.asnCount = asns;
+            this.asnOffset = HEADER_SIZE + ranges * RANGE_SIZE;
+            this.namesOffset = (int) names;
+        }
+    }
+
+    private static void compile(final File source, final File indexFile) throws IOException
+    {
+        final long sourceLength = source.length();
+        final long sourceModified = source.lastModified();
+
+        final List<Range> ranges = new ArrayList<>();
+        final Map<Integer, String> asnNames = new TreeMap<>(Integer::compareUnsigned);
+
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8), 64 * 1024))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                final String[] fields = line.split("\t", 5);
+                if (fields.length < 4)
+                {
+                    continue;
+                }
+
+                final long[] start = BTC_IpAddress.parse(fields[0]);
+                final long[] end = BTC_IpAddress.parse(fields[1]);
+                final int asn;
+                try
+                {
+                    asn = (int) Long.parseLong(fields[2]);
+                }
+                catch (NumberFormatException ex)
+                {
+                    continue;
+                }
+                if (start == null || end == null || asn == 0)
+                {
+                    continue;
+                }
+
+                final String country = fields[3].length() == 2 ? fields[3].toUpperCase(Locale.ROOT) : "";
+                ranges.add(new Range(start, end, asn, country));
+                if (fields.length == 5 && !fields[4].isEmpty())
+                {
+                    asnNames.putIfAbsent(asn, fields[4]);
+                }
+            }
+        }
+
+        ranges.sort((a, b) ->
+        {
+            final int result = Long.compareUnsigned(a.start[0], b.start[0]);
+            return result != 0 ? result : Long.compareUnsigned(a.start[1], b.start[1]);
+        });
+
+        final File temp = new File(indexFile.getPath() + ".tmp");
+        try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024)))
+        {
+            output.writeInt(INDEX_MAGIC);
+            output.writeInt(INDEX_VERSION);
+            output.writeLong(sourceLength);
+            output.writeLong(sourceModified);
+            output.writeInt(ranges.size());
+            output.writeInt(asnNames.size());
+
+            for (final Range range : ranges)
+            {
+                output.writeLong(range.start[0]);
+                output.writeLong(range.start[1]);
+                output.writeLong(range.end[0]);
+                output.writeLong(range.end[1]);
+                output.writeInt(range.asn);
+                output.writeByte(range.country.isEmpty() ? 0 : range.country.charAt(0));
+                output.writeByte(range.country.isEmpty() ? 0 : range.country.charAt(1));
+                output.writeShort(0);
+            }
+
+            final ByteArrayOutputStream names = new ByteArrayOutputStream();
+            final DataOutputStream namesOutput = new DataOutputStream(names);
+            for (final Map.Entry<Integer, String> entry : asnNames.entrySet())
+            {
+                final byte[] bytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                final int length = Math.min(bytes.length, 0xFFFF);
+
+                output.writeInt(entry.getKey());
+                output.writeInt(names.size());
+                namesOutput.writeShort(length);
+                namesOutput.write(bytes, 0, length);
+            }
+            names.writeTo(output);
+        }
+
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static final class Range
+    {
+        private final long[] start;
+        private final long[] end;
+        private final int asn;
+        private final String country;
+
+        private Range(final long[] start, final long[] end, final int asn, final String country)
+        {
+            this.start = start;
+            this.end = end;
+            this.asn = asn;
+            this.country = country;
+        }
+    }
+
+    public static final class Location
+    {
+        private final String country;
+        private final int asn;
+        private final String asnName;
+
+        private Location(final String country, final int asn, final String asnName)
+        {
+            this.country = country;
+            this.asn = asn;
+            this.asnName = asnName;
+        }
+
+        // ISO 3166 code, empty if unknown.
+        public String getCountry()
+        {
+            return country;
+        }
+
+        public int getAsn()
+        {
+            return asn;
+        }
+
+        public String getAsnName()
+        {
+            return asnName;
+        }
+
+        @Override
+        public String toString()
+        {
+            return asnName.isEmpty() ? "AS" + Integer.toUnsignedString(asn) : "AS" + Integer.toUnsignedString(asn) + " " + asnName;
+        }
+
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (!(obj instanceof Location))
+            {
+                return false;
+            }
+
+            final Location other = (Location) obj;
+            return asn == other.asn && country.equals(other.country) && asnName.equals(other.asnName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(country, asn, asnName);
+        }
+    }
+}
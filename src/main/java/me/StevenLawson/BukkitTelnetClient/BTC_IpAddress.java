@@ -0,0 +1,100 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+// IP addresses as 128 bit (high, low) pairs, IPv4 as IPv4 mapped IPv6 so both sort in one key space.
+public final class BTC_IpAddress
+{
+    private BTC_IpAddress()
+    {
+        throw new AssertionError();
+    }
+
+    // Dotted IPv4 or an IPv6 literal, both as 128 bits.
+    public static long[] parse(final String ip)
+    {
+        final String address = ip.startsWith("/") ? ip.substring(1) : ip;
+
+        if (address.indexOf(':') < 0)
+        {
+            long value = 0;
+            int octets = 0;
+            int octet = -1;
+            for (int i = 0; i <= address.length(); i++)
+            {
+                final char c = i < address.length() ? address.charAt(i) : '.';
+                if (c == '.')
+                {
+                    if (octet < 0 || ++octets > 4)
+                    {
+                        return null;
+                    }
+                    value = (value << 8) | octet;
+                    octet = -1;
+                }
+                else if (c >= '0' && c <= '9')
+                {
+                    octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                    if (octet > 255)
+                    {
+                        return null;
+                    }
+                }
+                else
+                {
+                    return null;
+                }
+            }
+
+            return octets == 4 ? new long[]
+            {
+                0, 0xFFFF00000000L | value
+            } : null;
+        }
+
+        // With a ':' in it this is only ever parsed as a literal, never looked up.
+        final byte[] bytes;
+        try
+        {
+            bytes = InetAddress.getByName(address.startsWith("[") ? address : "[" + address + "]").getAddress();
+        }
+        catch (UnknownHostException | SecurityException ex)
+        {
+            return null;
+        }
+
+        if (bytes.length == 4)
+        {
+            return new long[]
+            {
+                0, 0xFFFF00000000L | (ByteBuffer.wrap(bytes).getInt() & 0xFFFFFFFFL)
+            };
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new long[]
+        {
+            buffer.getLong(), buffer.getLong()
+        };
+    }
+}
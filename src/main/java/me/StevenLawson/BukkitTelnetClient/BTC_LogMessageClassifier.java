@@ -0,0 +1,443 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.Color;
+import java.util.*;
+import me.StevenLawson.BukkitTelnetClient.BTC_TelnetMessage.BTC_LogMessageType;
+import org.apache.commons.lang3.StringUtils;
+
+// Classifies a log line in a single pass: the level markers, the built-in BTC_LogMessageType prefixes
+// and the user defined message classes are all compiled into one Aho-Corasick automaton, so the cost
+// per line doesn't grow with the number of classes. A built-in type matches when its prefix follows
+// any " INFO]: " marker on a line starting with ":[", like the regex "^:\[.+? INFO\]: <prefix>" would.
+public final class BTC_LogMessageClassifier
+{
+    // Ids shared by the console line types and the message filter: 0 is for the client's own messages,
+    // then the built-in types, telnet lines without a type, and the user defined classes.
+    public static final int UNTYPED_ID = BTC_LogMessageType.values().length + 1;
+    public static final int FIRST_USER_CLASS_ID = UNTYPED_ID + 1;
+    public static final Classification UNCLASSIFIED = new Classification(null, null, null, -1, false, false);
+
+    private static final BTC_LogMessageType[] TYPES = BTC_LogMessageType.values();
+
+    private static final String PREFIX_START = ":[";
+    private static final String LEVEL_END = "]: ";
+    private static final String ISSUED_SERVER_COMMAND = " issued server command: ";
+
+    private static final int KIND_LEVEL = 0;
+    private static final int KIND_BUILT_IN_PREFIX = 1;
+    private static final int KIND_ISSUED_SERVER_COMMAND = 2;
+    private static final int KIND_USER_PREFIX = 3;
+    private static final int KIND_USER_CONTAINS = 4;
+
+    private static volatile BTC_LogMessageClassifier current = new BTC_LogMessageClassifier(Collections.emptyList());
+
+    // Every char used by a pattern gets its own column in the transition table, all others share column 0.
+    private final char[] charClasses = new char[Character.MAX_VALUE + 1];
+    private final int columns;
+    private final int[] transitions;
+    private final int[][] outputs;
+    private final int[] patternKinds;
+    private final int[] patternLengths;
+    private final int[] patternArgs;
+    private final List<BTC_MessageClass> messageClasses;
+
+    private BTC_LogMessageClassifier(final Collection<MessageClassEntry> entries)
+    {
+        final List<String> patterns = new ArrayList<>();
+        final List<int[]> patternInfo = new ArrayList<>();
+
+        for (final LogLevel level : LogLevel.VALUES)
+        {
+            addPattern(patterns, patternInfo, level.token + LEVEL_END, KIND_LEVEL, level.ordinal());
+        }
+
+        addPattern(patterns, patternInfo, "<", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.CHAT_MESSAGE.ordinal());
+        addPattern(patterns, patternInfo, "[Server:", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.SAY_MESSAGE.ordinal());
+        addPattern(patterns, patternInfo, "[CONSOLE]<", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.CSAY_MESSAGE.ordinal());
+        addPattern(patterns, patternInfo, "[ADMIN] ", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.ADMINSAY_MESSAGE.ordinal());
+        addPattern(patterns, patternInfo, "[TotalFreedomMod] [ADMIN] ", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.LEGACY_ADMINSAY_MESSAGE.ordinal());
+        addPattern(patterns, patternInfo, "WorldEdit: ", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.WORLD_EDIT.ordinal());
+        addPattern(patterns, patternInfo, "[AsyncWorldEdit] ", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.ASYNC_WORLD_EDIT.ordinal());
+        addPattern(patterns, patternInfo, "[PREPROCESS_COMMAND] ", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.PREPROCESS_COMMAND.ordinal());
+        addPattern(patterns, patternInfo, ISSUED_SERVER_COMMAND, KIND_ISSUED_SERVER_COMMAND, BTC_LogMessageType.ISSUED_SERVER_COMMAND.ordinal());
+        addPattern(patterns, patternInfo, "[PLAYER_COMMAND] ", KIND_BUILT_IN_PREFIX, BTC_LogMessageType.PLAYER_COMMAND.ordinal());
+
+        final List<BTC_MessageClass> _messageClasses = new ArrayList<>();
+        for (final MessageClassEntry entry : entries)
+        {
+            if (StringUtils.isEmpty(entry.getPattern()))
+            {
+                System.out.println("Skipping message class without a pattern: " + entry.getName());
+                continue;
+            }
+
+            final int index = _messageClasses.size();
+            _messageClasses.add(new BTC_MessageClass(FIRST_USER_CLASS_ID + index, entry.getName(), parseColor(entry.getColor()), entry.isHidden()));
+
+            final int kind = MessageClassEntry.MATCH_CONTAINS.equalsIgnoreCase(entry.getMatch()) ? KIND_USER_CONTAINS : KIND_USER_PREFIX;
+            addPattern(patterns, patternInfo, entry.getPattern(), kind, index);
+        }
+        this.messageClasses = Collections.unmodifiableList(_messageClasses);
+
+        this.patternKinds = new int[patterns.size()];
+        this.patternLengths = new int[patterns.size()];
+        this.patternArgs = new int[patterns.size()];
+        for (int i = 0; i < patterns.size(); i++)
+        {
+            this.patternKinds[i] = patternInfo.get(i)[0];
+            this.patternArgs[i] = patternInfo.get(i)[1];
+            this.patternLengths[i] = patterns.get(i).length();
+        }
+
+        int _columns = 1;
+        for (final String pattern : patterns)
+        {
+            for (int i = 0; i < pattern.length(); i++)
+            {
+                if (this.charClasses[pattern.charAt(i)] == 0)
+                {
+                    this.charClasses[pattern.charAt(i)] = (char) _columns++;
+                }
+            }
+        }
+        this.columns = _columns;
+
+        // Trie first, 0 meaning no edge since nothing points back at the root.
+        final List<int[]> rows = new ArrayList<>();
+        final List<List<Integer>> rowOutputs = new ArrayList<>();
+        rows.add(new int[this.columns]);
+        rowOutputs.add(new ArrayList<>());
+
+        for (int pattern = 0; pattern < patterns.size(); pattern++)
+        {
+            final String text = patterns.get(pattern);
+
+            int state = 0;
+            for (int i = 0; i < text.length(); i++)
+            {
+                final int column = this.charClasses[text.charAt(i)];
+                if (rows.get(state)[column] == 0)
+                {
+                    rows.get(state)[column] = rows.size();
+                    rows.add(new int[this.columns]);
+                    rowOutputs.add(new ArrayList<>());
+                }
+                state = rows.get(state)[column];
+            }
+
+            rowOutputs.get(state).add(pattern);
+        }
+
+        // Then turn it into a DFA breadth first, following failure links for missing edges.
+        final int[] failure = new int[rows.size()];
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (int column = 0; column < this.columns; column++)
+        {
+            if (rows.get(0)[column] != 0)
+            {
+                queue.add(rows.get(0)[column]);
+            }
+        }
+
+        while (!queue.isEmpty())
+        {
+            final int state = queue.poll();
+            final int[] row = rows.get(state);
+            final int[] failureRow = rows.get(failure[state]);
+
+            rowOutputs.get(state).addAll(rowOutputs.get(failure[state]));
+
+            for (int column = 0; column < this.columns; column++)
+            {
+                if (row[column] != 0)
+                {
+                    failure[row[column]] = failureRow[column];
+                    queue.add(row[column]);
+                }
+                else
+                {
+                    row[column] = failureRow[column];
+                }
+            }
+        }
+
+        this.transitions = new int[rows.size() * this.columns];
+        this.outputs = new int[rows.size()][];
+        for (int state = 0; state < rows.size(); state++)
+        {
+            System.arraycopy(rows.get(state), 0, this.transitions, state * this.columns, this.columns);
+
+            final List<Integer> stateOutputs = rowOutputs.get(state);
+            if (!stateOutputs.isEmpty())
+            {
+                this.outputs[state] = stateOutputs.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+    }
+
+    private static void addPattern(final List<String> patterns, final List<int[]> patternInfo, final String pattern, final int kind, final int arg)
+    {
+        patterns.add(pattern);
+        patternInfo.add(new int[]
+        {
+            kind, arg
+        });
+    }
+
+    private static Color parseColor(final String color)
+    {
+        try
+        {
+            return Color.decode(StringUtils.trimToEmpty(color));
+        }
+        catch (NumberFormatException ex)
+        {
+            System.out.println("Invalid message class color: " + color);
+            return Color.BLACK;
+        }
+    }
+
+    // Recompiles the classifier, lines classified from then on use the new classes.
+    public static void setMessageClasses(final Collection<MessageClassEntry> entries)
+    {
+        current = new BTC_LogMessageClassifier(entries);
+    }
+
+    public static List<BTC_MessageClass> getMessageClasses()
+    {
+        return current.messageClasses;
+    }
+
+    public static Classification classify(final String message)
+    {
+        return current.classifyLine(message);
+    }
+
+    private Classification classifyLine(final String message)
+    {
+        // The built-in patterns are anchored with ^ and '.' doesn't cross line terminators.
+        final int end = lineEnd(message);
+        final boolean prefixed = end >= 3 && message.startsWith(PREFIX_START);
+
+        LogLevel level = null;
+        int bodyOffset = -1;
+        int firstInfoBody = -1;
+        boolean info = false;
+        boolean error = false;
+        BTC_LogMessageType type = null;
+        int userClass = Integer.MAX_VALUE;
+
+        int state = 0;
+        for (int i = 0; i < end; i++)
+        {
+            state = this.transitions[state * this.columns + this.charClasses[message.charAt(i)]];
+
+            final int[] matched = this.outputs[state];
+            if (matched == null)
+            {
+                continue;
+            }
+
+            for (final int pattern : matched)
+            {
+                final int start = i + 1 - this.patternLengths[pattern];
+                final int arg = this.patternArgs[pattern];
+
+                switch (this.patternKinds[pattern])
+                {
+                    case KIND_LEVEL:
+                    {
+                        // At least one character between ":[" and the level.
+                        if (!prefixed || start < 3)
+                        {
+                            break;
+                        }
+
+                        if (level == null)
+                        {
+                            level = LogLevel.VALUES[arg];
+                            bodyOffset = i + 1;
+                        }
+
+                        if (arg == LogLevel.INFO.ordinal())
+                        {
+                            info = true;
+                            if (firstInfoBody < 0)
+                            {
+                                firstInfoBody = i + 1;
+                            }
+                        }
+                        else
+                        {
+                            error = true;
+                        }
+                        break;
+                    }
+                    case KIND_BUILT_IN_PREFIX:
+                    {
+                        if (prefixed && levelEndingAt(message, start) == LogLevel.INFO && (type == null || arg < type.ordinal()))
+                        {
+                            type = TYPES[arg];
+                        }
+                        break;
+                    }
+                    case KIND_ISSUED_SERVER_COMMAND:
+                    {
+                        if (firstInfoBody >= 0 && start > firstInfoBody && (type == null || arg < type.ordinal()))
+                        {
+                            type = BTC_LogMessageType.ISSUED_SERVER_COMMAND;
+                        }
+                        break;
+                    }
+                    case KIND_USER_PREFIX:
+                    {
+                        if (prefixed && levelEndingAt(message, start) != null)
+                        {
+                            userClass = Math.min(userClass, arg);
+                        }
+                        break;
+                    }
+                    case KIND_USER_CONTAINS:
+                    {
+                        userClass = Math.min(userClass, arg);
+                        break;
+                    }
+                }
+            }
+        }
+
+        final BTC_MessageClass messageClass = userClass == Integer.MAX_VALUE ? null : this.messageClasses.get(userClass);
+        if (level == null && messageClass == null)
+        {
+            return UNCLASSIFIED;
+        }
+
+        return new Classification(type, messageClass, level, bodyOffset, info, error);
+    }
+
+    // Level of the " LEVEL]: " marker ending right before body, at least one character after ":[".
+    private static LogLevel levelEndingAt(final String message, final int body)
+    {
+        final int marker = body - LEVEL_END.length();
+        if (marker < 0 || !message.startsWith(LEVEL_END, marker))
+        {
+            return null;
+        }
+
+        for (final LogLevel level : LogLevel.VALUES)
+        {
+            final int start = marker - level.token.length();
+            if (start >= 3 && message.startsWith(level.token, start))
+            {
+                return level;
+            }
+        }
+
+        return null;
+    }
+
+    private static int lineEnd(final String message)
+    {
+        for (int i = 0; i < message.length(); i++)
+        {
+            switch (message.charAt(i))
+            {
+                case '\n':
+                case '\r':
+                case '\u0085':
+                case '\u2028':
+                case '\u2029':
+                    return i;
+            }
+        }
+
+        return message.length();
+    }
+
+    public static enum LogLevel
+    {
+        INFO(" INFO"),
+        WARN(" WARN"),
+        ERROR(" ERROR");
+
+        private static final LogLevel[] VALUES = values();
+
+        private final String token;
+
+        private LogLevel(final String token)
+        {
+            this.token = token;
+        }
+    }
+
+    public static final class Classification
+    {
+        private final BTC_LogMessageType type;
+        private final BTC_MessageClass messageClass;
+        private final LogLevel level;
+        private final int bodyOffset;
+        private final boolean info;
+        private final boolean error;
+
+        private Classification(final BTC_LogMessageType type, final BTC_MessageClass messageClass, final LogLevel level, final int bodyOffset, final boolean info, final boolean error)
+        {
+            this.type = type;
+            this.messageClass = messageClass;
+            this.level = level;
+            this.bodyOffset = bodyOffset;
+            this.info = info;
+            this.error = error;
+        }
+
+        public BTC_LogMessageType getType()
+        {
+            return type;
+        }
+
+        // First user defined class (in config order) that matched, null if none did.
+        public BTC_MessageClass getMessageClass()
+        {
+            return messageClass;
+        }
+
+        // Level of the first "LEVEL]: " marker, null if there is none.
+        public LogLevel getLevel()
+        {
+            return level;
+        }
+
+        // Index right after the first "LEVEL]: " marker, -1 if there is none.
+        public int getBodyOffset()
+        {
+            return bodyOffset;
+        }
+
+        public boolean isInfo()
+        {
+            return info;
+        }
+
+        public boolean isError()
+        {
+            return error;
+        }
+    }
+}
@@ -22,26 +22,36 @@ import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.net.URL;
+import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.*;
 import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
-import javax.swing.text.*;
+import javax.swing.table.DefaultTableModel;
+import me.StevenLawson.BukkitTelnetClient.BTC_TelnetMessage.BTC_LogMessageType;
 import org.apache.commons.lang3.StringUtils;
 import videogamesm12.FreedomTelnetClientPlus.BTC_FavoriteButtonsMenu;
 
 public class BTC_MainPanel extends javax.swing.JFrame
 {
     private final BTC_ConnectionManager connectionManager = new BTC_ConnectionManager();
-    private final List<PlayerInfo> playerList = new ArrayList<>();
-    private final PlayerListTableModel playerListTableModel = new PlayerListTableModel(playerList);
+    // Latest snapshot from the connection thread, the table model may still be catching up to it.
+    private final AtomicReference<BTC_PlayerListSnapshot> playerSnapshot = new AtomicReference<>(BTC_PlayerListSnapshot.EMPTY);
+    private final PlayerListTableModel playerListTableModel = new PlayerListTableModel();
     private final Collection<FavoriteButtonEntry> favButtonList = BukkitTelnetClient.config.getFavoriteButtons();
+    private final BTC_ConsoleFindBar consoleFindBar;
 
     public BTC_MainPanel()
     {
         initComponents();
+
+        this.consoleFindBar = new BTC_ConsoleFindBar(mainOutput);
+
+        this.consoleFrameTimer.setRepeats(false);
     }
 
     public void setup()
@@ -68,16 +78,49 @@ public class BTC_MainPanel extends javax.swing.JFrame
 
         setupTablePopup();
 
+        // The find bar goes above the console, in the console's place in the generated layout.
+        final JPanel consolePanel = new JPanel(new BorderLayout());
+        ((GroupLayout) jPanel3.getLayout()).replace(mainOutputScoll, consolePanel);
+        consolePanel.add(consoleFindBar, BorderLayout.NORTH);
+        consolePanel.add(mainOutputScoll, BorderLayout.CENTER);
+        consoleFindBar.install(getRootPane());
+
         this.getConnectionManager().updateTitle(false);
 
         this.tblPlayers.setModel(playerListTableModel);
+        this.tblPlayers.setRowSorter(new BTC_PlayerTableSorter(playerListTableModel));
+        this.tblPlayers.setDefaultRenderer(Object.class, new BTC_PlayerTableCellRenderer(playerListTableModel));
 
-        this.tblPlayers.getRowSorter().toggleSortOrder(0);
+        BTC_OffenderList.load(offenders -> playerIpIndex.setBannedUuids(offenders::isBannedUuid));
+        geoIpDatabase.load(() -> geoIpDatabase.resolve(playerListTableModel.getPlayerList(), playerListTableModel::setLocations));
+
+        this.tblPlayers.getRowSorter().toggleSortOrder(PlayerInfo.COLUMN_NAME);
+
+        for (final JCheckBoxMenuItem filterItem : Arrays.asList(chkShowChatOnly, chkIgnoreServerCommands, chkIgnorePlayerCommands, chkIgnoreAWE))
+        {
+            filterItem.addItemListener(event -> updateMessageFilter());
+        }
+        updateMessageFilter();
 
         this.setLocationRelativeTo(null);
         this.setVisible(true);
     }
 
+    private static final int CONSOLE_QUEUE_CAPACITY = 65536;
+    private static final int CONSOLE_FRAME_MS = 16;
+
+    // Producer is the connection reader thread, consumer is the EDT.
+    private final BTC_RingBuffer<BTC_ConsoleMessage> consoleQueue = new BTC_RingBuffer<>(CONSOLE_QUEUE_CAPACITY);
+    private final AtomicBoolean consoleDrainScheduled = new AtomicBoolean(false);
+    private long reportedDropCount = 0;
+
+    private int pendingConsoleLines = 0;
+    private final BTC_SessionLogWriter sessionLogWriter = new BTC_SessionLogWriter();
+    private final BTC_PlayerSessionStore playerSessionStore = new BTC_PlayerSessionStore();
+    private final BTC_PlayerIpIndex playerIpIndex = new BTC_PlayerIpIndex();
+    private final BTC_GeoIpDatabase geoIpDatabase = new BTC_GeoIpDatabase();
+    private final Timer consoleFrameTimer = new Timer(CONSOLE_FRAME_MS, event -> drainConsoleQueue());
+
     private final Queue<BTC_TelnetMessage> telnetErrorQueue = new LinkedList<>();
     private boolean isQueueing = false;
 
@@ -87,10 +130,53 @@ public class BTC_MainPanel extends javax.swing.JFrame
         while ((queuedMessage = telnetErrorQueue.poll()) != null)
         {
             queuedMessage.setColor(Color.GRAY);
-            writeToConsoleImmediately(queuedMessage, true);
+            appendToConsoleBatch(queuedMessage, true);
         }
     }
 
+    // Called whenever a filter menu item changes, the console re-filters its history with the new filter.
+    public void updateMessageFilter()
+    {
+        final BitSet hidden = new BitSet();
+
+        if (chkShowChatOnly.isSelected())
+        {
+            hidden.set(BTC_LogMessageClassifier.UNTYPED_ID);
+            for (final BTC_LogMessageType type : BTC_LogMessageType.values())
+            {
+                if (!type.isChat())
+                {
+                    hidden.set(type.getId());
+                }
+            }
+        }
+
+        if (chkIgnoreServerCommands.isSelected())
+        {
+            hidden.set(BTC_LogMessageType.ISSUED_SERVER_COMMAND.getId());
+        }
+
+        if (chkIgnorePlayerCommands.isSelected())
+        {
+            hidden.set(BTC_LogMessageType.PLAYER_COMMAND.getId());
+        }
+
+        if (chkIgnoreAWE.isSelected())
+        {
+            hidden.set(BTC_LogMessageType.ASYNC_WORLD_EDIT.getId());
+        }
+
+        for (final BTC_MessageClass messageClass : BTC_LogMessageClassifier.getMessageClasses())
+        {
+            if (messageClass.isHidden())
+            {
+                hidden.set(messageClass.getId());
+            }
+        }
+
+        mainOutput.setFilter(new BTC_MessageFilter(hidden));
+    }
+
     public void writeToConsole(final BTC_ConsoleMessage message)
     {
         if (message.getMessage().isEmpty())
@@ -98,6 +184,49 @@ public class BTC_MainPanel extends javax.swing.JFrame
             return;
         }
 
+        if (SwingUtilities.isEventDispatchThread())
+        {
+            drainConsoleQueue();
+            processConsoleMessage(message);
+            flushConsoleBatch();
+            return;
+        }
+
+        consoleQueue.offer(message);
+
+        // Whatever else arrives before the frame timer fires goes into the same batch.
+        if (consoleDrainScheduled.compareAndSet(false, true))
+        {
+            SwingUtilities.invokeLater(consoleFrameTimer::restart);
+        }
+    }
+
+    private void drainConsoleQueue()
+    {
+        consoleDrainScheduled.set(false);
+
+        // Only take what's there now, anything arriving meanwhile gets its own pass.
+        int pending = consoleQueue.size();
+
+        BTC_ConsoleMessage message;
+        while (pending-- > 0 && (message = consoleQueue.poll()) != null)
+        {
+            processConsoleMessage(message);
+        }
+
+        final long dropCount = consoleQueue.getDroppedCount();
+        if (dropCount != reportedDropCount)
+        {
+            final long newlyDropped = dropCount - reportedDropCount;
+            reportedDropCount = dropCount;
+            processConsoleMessage(new BTC_ConsoleMessage("[" + newlyDropped + " lines dropped, console can't keep up]", Color.GRAY));
+        }
+
+        flushConsoleBatch();
+    }
+
+    private void processConsoleMessage(final BTC_ConsoleMessage message)
+    {
         if (message instanceof BTC_TelnetMessage)
         {
             final BTC_TelnetMessage telnetMessage = (BTC_TelnetMessage) message;
@@ -115,62 +244,60 @@ public class BTC_MainPanel extends javax.swing.JFrame
 
             if (!isQueueing)
             {
-                writeToConsoleImmediately(telnetMessage, false);
+                appendToConsoleBatch(telnetMessage, false);
             }
         }
         else
         {
             isQueueing = false;
             flushTelnetErrorQueue();
-            writeToConsoleImmediately(message, false);
+            appendToConsoleBatch(message, false);
         }
     }
 
-    private void writeToConsoleImmediately(final BTC_ConsoleMessage message, final boolean isTelnetError)
+    private void appendToConsoleBatch(final BTC_ConsoleMessage message, final boolean isTelnetError)
     {
-        SwingUtilities.invokeLater(() ->
+        if (isTelnetError && chkIgnoreErrors.isSelected())
         {
-            if (isTelnetError && chkIgnoreErrors.isSelected())
-            {
-                // Do Nothing
-            }
-            else
-            {
-                final StyledDocument styledDocument = mainOutput.getStyledDocument();
-
-                int startLength = styledDocument.getLength();
-
-                try
-                {
-                    styledDocument.insertString(
-                            styledDocument.getLength(),
-                            message.getMessage() + System.lineSeparator(),
-                            StyleContext.getDefaultStyleContext().addAttribute(SimpleAttributeSet.EMPTY, StyleConstants.Foreground, message.getColor())
-                    );
-                }
-                catch (BadLocationException ex)
-                {
-                    throw new RuntimeException(ex);
-                }
+            return;
+        }
 
-                if (BTC_MainPanel.this.chkAutoScroll.isSelected() && BTC_MainPanel.this.mainOutput.getSelectedText() == null)
-                {
-                    final JScrollBar vScroll = mainOutputScoll.getVerticalScrollBar();
+        int type = BTC_ConsoleLineStore.TYPE_NONE;
+        int messageClass = BTC_ConsoleLineStore.TYPE_NONE;
+        if (message instanceof BTC_TelnetMessage)
+        {
+            type = ((BTC_TelnetMessage) message).getTypeId();
+            messageClass = ((BTC_TelnetMessage) message).getMessageClassId();
+        }
 
-                    if (!vScroll.getValueIsAdjusting())
-                    {
-                        if (vScroll.getValue() + vScroll.getModel().getExtent() >= (vScroll.getMaximum() - 50))
-                        {
-                            BTC_MainPanel.this.mainOutput.setCaretPosition(startLength);
+        pendingConsoleLines += mainOutput.getLineStore().append(message.getMessage(), message.getPaletteIndex(), type, messageClass);
+    }
 
-                            final Timer timer = new Timer(10, event -> vScroll.setValue(vScroll.getMaximum()));
-                            timer.setRepeats(false);
-                            timer.start();
-                        }
-                    }
-                }
-            }
-        });
+    private void flushConsoleBatch()
+    {
+        if (pendingConsoleLines == 0)
+        {
+            return;
+        }
+        pendingConsoleLines = 0;
+
+        final SettingsEntry settings = BukkitTelnetClient.config.getSettings();
+        final int evicted = mainOutput.getLineStore().trim(
+                settings.getMaxScrollbackLines(),
+                settings.getMaxScrollbackBytes(),
+                settings.isSpillEvictedLines() ? sessionLogWriter::spill : null);
+        mainOutput.linesEvicted(evicted);
+
+        // Not while the user selects text or drags the scrollbar.
+        final boolean follow = BTC_MainPanel.this.chkAutoScroll.isSelected()
+                && !BTC_MainPanel.this.mainOutput.hasSelection()
+                && !mainOutputScoll.getVerticalScrollBar().getValueIsAdjusting();
+        mainOutput.linesAppended(follow);
+
+        if (consoleFindBar.isVisible())
+        {
+            consoleFindBar.hitsChanged();
+        }
     }
 
     public final PlayerInfo getSelectedPlayer()
@@ -178,82 +305,276 @@ public class BTC_MainPanel extends javax.swing.JFrame
         final JTable table = BTC_MainPanel.this.tblPlayers;
 
         final int selectedRow = table.getSelectedRow();
-        if (selectedRow < 0 || selectedRow >= playerList.size())
+        final BTC_PlayerListSnapshot snapshot = playerListTableModel.getSnapshot();
+        if (selectedRow < 0 || selectedRow >= snapshot.size())
         {
             return null;
         }
 
-        return playerList.get(table.convertRowIndexToModel(selectedRow));
+        return snapshot.get(table.convertRowIndexToModel(selectedRow));
     }
 
+    // Confined to the EDT, reads only from the snapshot it was last given.
     public static class PlayerListTableModel extends AbstractTableModel
     {
-        private final List<PlayerInfo> _playerList;
+        // Looked up from the player's IP, after the PlayerInfo columns.
+        public static final int COLUMN_COUNTRY = PlayerInfo.numColumns;
+        public static final int COLUMN_ASN = PlayerInfo.numColumns + 1;
+        private static final String[] LOCATION_COLUMN_NAMES =
+        {
+            "Country", "ASN"
+        };
 
-        public PlayerListTableModel(List<PlayerInfo> playerList)
+        private static final Color OFFENDER_COLOR = new Color(255, 176, 176);
+        private static final Color SHARED_IP_COLOR = new Color(255, 224, 160);
+
+        private BTC_PlayerListSnapshot snapshot = BTC_PlayerListSnapshot.EMPTY;
+        // The snapshot's rows, except while removals are being announced: the sorter may read rows then.
+        private List<PlayerInfo> rows = snapshot.getPlayers();
+        // Reasons by UUID, for players sharing an IP with another online or a banned account.
+        private Map<String, String> sharedIpFlags = Collections.emptyMap();
+        // Locations by IP, filled in off the EDT after each refresh.
+        private Map<String, BTC_GeoIpDatabase.Location> locations = Collections.emptyMap();
+
+        public PlayerListTableModel()
         {
-            this._playerList = playerList;
         }
 
         @Override
         public int getRowCount()
         {
-            return _playerList.size();
+            return rows.size();
         }
 
         @Override
         public int getColumnCount()
         {
-            return PlayerInfo.numColumns;
+            return PlayerInfo.numColumns + LOCATION_COLUMN_NAMES.length;
         }
 
         @Override
         public Object getValueAt(int rowIndex, int columnIndex)
         {
-            if (rowIndex >= _playerList.size())
+            if (rowIndex >= rows.size())
             {
                 return null;
             }
 
-            return _playerList.get(rowIndex).getColumnValue(columnIndex);
+            final PlayerInfo player = rows.get(rowIndex);
+            if (columnIndex < PlayerInfo.numColumns)
+            {
+                return player.getColumnValue(columnIndex);
+            }
+
+            final BTC_GeoIpDatabase.Location location = locations.get(player.getIp());
+            if (location == null)
+            {
+                return "";
+            }
+
+            return columnIndex == COLUMN_COUNTRY ? location.getCountry() : location.toString();
         }
 
         @Override
         public String getColumnName(int columnIndex)
         {
-            return columnIndex < getColumnCount() ? PlayerInfo.columnNames[columnIndex] : "null";
+            if (columnIndex < PlayerInfo.numColumns)
+            {
+                return PlayerInfo.columnNames[columnIndex];
+            }
+
+            return columnIndex < getColumnCount() ? LOCATION_COLUMN_NAMES[columnIndex - PlayerInfo.numColumns] : "null";
+        }
+
+        // Countries by code and ASNs by number, unknown ones first. Consistent with getRowCount at all
+        // times, also while removals are being announced.
+        public Comparable<?> getSortKey(final int rowIndex, final int columnIndex)
+        {
+            final PlayerInfo player = rows.get(rowIndex);
+            if (columnIndex < PlayerInfo.numColumns)
+            {
+                return player.getSortKey(columnIndex);
+            }
+
+            final BTC_GeoIpDatabase.Location location = locations.get(player.getIp());
+            if (columnIndex == COLUMN_COUNTRY)
+            {
+                return location != null ? location.getCountry() : "";
+            }
+
+            return location != null ? Integer.toUnsignedLong(location.getAsn()) : 0L;
+        }
+
+        // Repaints only the rows whose location changed.
+        public void setLocations(final Map<String, BTC_GeoIpDatabase.Location> next)
+        {
+            final Map<String, BTC_GeoIpDatabase.Location> previous = locations;
+            locations = next;
+
+            for (int row = 0; row < rows.size(); row++)
+            {
+                final String ip = rows.get(row).getIp();
+                if (!Objects.equals(previous.get(ip), next.get(ip)))
+                {
+                    fireTableRowsUpdated(row, row);
+                }
+            }
+        }
+
+        public BTC_PlayerListSnapshot getSnapshot()
+        {
+            return snapshot;
         }
 
         public List<PlayerInfo> getPlayerList()
         {
-            return _playerList;
+            return snapshot.getPlayers();
+        }
+
+        public Color getHighlight(final int rowIndex)
+        {
+            final PlayerInfo player = rows.get(rowIndex);
+            if (player.isOffender())
+            {
+                return OFFENDER_COLOR;
+            }
+
+            return sharedIpFlags.containsKey(player.getUuid()) ? SHARED_IP_COLOR : null;
+        }
+
+        public String getHighlightReason(final int rowIndex)
+        {
+            final PlayerInfo player = rows.get(rowIndex);
+            final String sharedIp = sharedIpFlags.get(player.getUuid());
+            if (player.isOffender())
+            {
+                return sharedIp != null ? "On the ban list. " + sharedIp : "On the ban list";
+            }
+
+            return sharedIp;
+        }
+
+        // Repaints only the rows whose flag changed.
+        public void setSharedIpFlags(final Map<String, String> flags)
+        {
+            final Map<String, String> previous = sharedIpFlags;
+            sharedIpFlags = flags;
+
+            final Set<String> changed = new HashSet<>();
+            for (final Map.Entry<String, String> entry : previous.entrySet())
+            {
+                if (!entry.getValue().equals(flags.get(entry.getKey())))
+                {
+                    changed.add(entry.getKey());
+                }
+            }
+            for (final String uuid : flags.keySet())
+            {
+                if (!previous.containsKey(uuid))
+                {
+                    changed.add(uuid);
+                }
+            }
+
+            for (final String uuid : changed)
+            {
+                final int row = snapshot.getRowOfUuid(uuid);
+                if (row >= 0)
+                {
+                    fireTableRowsUpdated(row, row);
+                }
+            }
+        }
+
+        // Fires only the row events recorded in the snapshot, or a full refresh if one was skipped.
+        public void setSnapshot(final BTC_PlayerListSnapshot next)
+        {
+            if (next.isReplaced() || next.getVersion() != snapshot.getVersion() + 1)
+            {
+                snapshot = next;
+                rows = next.getPlayers();
+                fireTableDataChanged();
+                return;
+            }
+
+            final int[] removedRuns = next.getRemovedRuns();
+            if (removedRuns.length > 0)
+            {
+                rows = new ArrayList<>(rows);
+                for (int i = 0; i < removedRuns.length; i += 2)
+                {
+                    rows.subList(removedRuns[i], removedRuns[i + 1] + 1).clear();
+                    fireTableRowsDeleted(removedRuns[i], removedRuns[i + 1]);
+                }
+            }
+
+            // Same rows as the snapshot's first keptCount from here on, with the new values.
+            snapshot = next;
+            rows = next.getPlayers().subList(0, next.getKeptCount());
+
+            final int[] updatedRuns = next.getUpdatedRuns();
+            for (int i = 0; i < updatedRuns.length; i += 2)
+            {
+                fireTableRowsUpdated(updatedRuns[i], updatedRuns[i + 1]);
+            }
+
+            rows = next.getPlayers();
+            if (next.getKeptCount() < next.size())
+            {
+                fireTableRowsInserted(next.getKeptCount(), next.size() - 1);
+            }
         }
     }
 
-    public final void updatePlayerList(final String selectedPlayerName)
+    // Called on the connection thread, the snapshot and its indexes are built here and the EDT only swaps it in.
+    public final void updatePlayerList(final List<PlayerInfo> players)
     {
+        final BTC_PlayerListSnapshot snapshot = playerSnapshot.updateAndGet(previous -> BTC_PlayerListSnapshot.update(previous, players));
+
+        playerSessionStore.record(getConnectionManager().getServerAddress(), snapshot.getJoined(), snapshot.getLeft());
+        playerIpIndex.update(snapshot.getPlayers(), playerListTableModel::setSharedIpFlags);
+        geoIpDatabase.resolve(snapshot.getPlayers(), playerListTableModel::setLocations);
+
         EventQueue.invokeLater(() ->
         {
-            playerListTableModel.fireTableDataChanged();
+            final PlayerInfo selectedPlayer = getSelectedPlayer();
 
-            BTC_MainPanel.this.txtNumPlayers.setText("" + playerList.size());
+            playerListTableModel.setSnapshot(snapshot);
 
-            if (selectedPlayerName != null)
-            {
-                final JTable table = BTC_MainPanel.this.tblPlayers;
-                final ListSelectionModel selectionModel = table.getSelectionModel();
+            BTC_MainPanel.this.txtNumPlayers.setText("" + snapshot.size());
 
-                for (PlayerInfo player : playerList)
+            if (selectedPlayer != null)
+            {
+                final int row = snapshot.getRowOfName(selectedPlayer.getName());
+                if (row >= 0)
                 {
-                    if (player.getName().equals(selectedPlayerName))
+                    final JTable table = BTC_MainPanel.this.tblPlayers;
+                    final int viewRow = table.convertRowIndexToView(row);
+                    if (viewRow >= 0 && table.getSelectedRow() != viewRow)
                     {
-                        selectionModel.setSelectionInterval(0, table.convertRowIndexToView(playerList.indexOf(player)));
+                        table.getSelectionModel().setSelectionInterval(viewRow, viewRow);
                     }
                 }
             }
         });
     }
 
+    // Empties the player list. The players still in it are recorded as leaving server, unless that's null.
+    public final void clearPlayerList(final String server)
+    {
+        final BTC_PlayerListSnapshot previous = playerSnapshot.getAndSet(BTC_PlayerListSnapshot.EMPTY);
+        if (server != null && previous.size() > 0)
+        {
+            playerSessionStore.record(server, Collections.emptyList(), previous.getPlayers());
+        }
+
+        EventQueue.invokeLater(() ->
+        {
+            playerListTableModel.setSnapshot(BTC_PlayerListSnapshot.EMPTY);
+            BTC_MainPanel.this.txtNumPlayers.setText("0");
+        });
+    }
+
     public static class PlayerListPopupItem extends JMenuItem
     {
         private final PlayerInfo player;
@@ -359,6 +680,16 @@ public class BTC_MainPanel extends javax.swing.JFrame
                                         BTC_MainPanel.this.writeToConsole(new BTC_ConsoleMessage("Copied UUID to clipboard: " + _player.getUuid()));
                                         break;
                                     }
+                                    case "Session History":
+                                    {
+                                        playerSessionStore.findEvents(_player, events -> showSessionHistory(_player, events));
+                                        break;
+                                    }
+                                    case "Search Archive...":
+                                    {
+                                        searchArchive(_player);
+                                        break;
+                                    }
                                 }
                             }
                         };
@@ -386,6 +717,16 @@ public class BTC_MainPanel extends javax.swing.JFrame
                         item.addActionListener(popupAction);
                         popup.add(item);
 
+                        popup.addSeparator();
+
+                        item = new PlayerListPopupItem("Session History", player);
+                        item.addActionListener(popupAction);
+                        popup.add(item);
+
+                        item = new PlayerListPopupItem("Search Archive...", player);
+                        item.addActionListener(popupAction);
+                        popup.add(item);
+
                         popup.show(mouseEvent.getComponent(), mouseEvent.getX(), mouseEvent.getY());
                     }
                 }
@@ -393,6 +734,143 @@ public class BTC_MainPanel extends javax.swing.JFrame
         });
     }
 
+    private void showSessionHistory(final PlayerInfo player, final List<BTC_PlayerSessionStore.Event> events)
+    {
+        final List<BTC_PlayerSessionStore.Session> sessions = BTC_PlayerSessionStore.getSessions(events);
+        if (sessions.isEmpty())
+        {
+            JOptionPane.showMessageDialog(this, "No sessions recorded for " + player.getName() + ".", "Session History", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        final DefaultTableModel model = new DefaultTableModel(new Object[]
+        {
+            "Joined", "Left", "Duration", "Name", "IP", "Server"
+        }, 0)
+        {
+            @Override
+            public boolean isCellEditable(final int row, final int column)
+            {
+                return false;
+            }
+        };
+
+        for (final BTC_PlayerSessionStore.Session session : sessions)
+        {
+            final long leaveTime = session.getLeaveTime();
+            final long seconds = leaveTime != 0 ? (leaveTime - session.getJoinTime()) / 1000 : 0;
+
+            model.addRow(new Object[]
+            {
+                dateFormat.format(new Date(session.getJoinTime())),
+                leaveTime != 0 ? dateFormat.format(new Date(leaveTime)) : "-",
+                leaveTime != 0 ? String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60) : "-",
+                session.getName(),
+                session.getIp(),
+                session.getServer()
+            });
+        }
+
+        final JTable table = new JTable(model);
+        table.setPreferredScrollableViewportSize(new Dimension(700, Math.min(sessions.size(), 20) * table.getRowHeight()));
+
+        JOptionPane.showMessageDialog(this, new JScrollPane(table), "Session History - " + player.getName() + " (" + sessions.size() + ")", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    // Asks for a time range and message type, then lists what the player said on this server.
+    private void searchArchive(final PlayerInfo player)
+    {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        dateFormat.setLenient(false);
+
+        final long now = System.currentTimeMillis();
+        final JTextField txtFrom = new JTextField(dateFormat.format(new Date(now - 24L * 60 * 60 * 1000)));
+        final JTextField txtTo = new JTextField(dateFormat.format(new Date(now + 60 * 1000)));
+        final JComboBox<Object> cmbType = new JComboBox<>();
+        cmbType.addItem("Any");
+        for (final BTC_LogMessageType type : BTC_LogMessageType.values())
+        {
+            cmbType.addItem(type);
+        }
+
+        final JPanel panel = new JPanel(new GridLayout(0, 2, 4, 4));
+        panel.add(new JLabel("From (" + dateFormat.toPattern() + "):"));
+        panel.add(txtFrom);
+        panel.add(new JLabel("To:"));
+        panel.add(txtTo);
+        panel.add(new JLabel("Type:"));
+        panel.add(cmbType);
+
+        if (JOptionPane.showConfirmDialog(this, panel, "Search Archive - " + player.getName(), JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+        {
+            return;
+        }
+
+        final long from;
+        final long to;
+        try
+        {
+            from = dateFormat.parse(txtFrom.getText().trim()).getTime();
+            to = dateFormat.parse(txtTo.getText().trim()).getTime();
+        }
+        catch (java.text.ParseException ex)
+        {
+            JOptionPane.showMessageDialog(this, "Dates must look like " + dateFormat.format(new Date(now)) + ".", "Search Archive", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        BitSet types = null;
+        if (cmbType.getSelectedItem() instanceof BTC_LogMessageType)
+        {
+            types = new BitSet();
+            types.set(((BTC_LogMessageType) cmbType.getSelectedItem()).getId());
+        }
+
+        final BTC_SessionArchive.Query query = new BTC_SessionArchive.Query(from, to, player.getName(), types, null, false, 10000);
+        BTC_SessionArchive.search(getConnectionManager().getServerAddress(), query, entries -> showArchiveResults(player, entries));
+    }
+
+    private void showArchiveResults(final PlayerInfo player, final List<BTC_SessionArchive.Entry> entries)
+    {
+        if (entries.isEmpty())
+        {
+            JOptionPane.showMessageDialog(this, "Nothing archived for " + player.getName() + " in that range.", "Search Archive", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        final DefaultTableModel model = new DefaultTableModel(new Object[]
+        {
+            "Time", "Type", "Message"
+        }, 0)
+        {
+            @Override
+            public boolean isCellEditable(final int row, final int column)
+            {
+                return false;
+            }
+        };
+
+        for (final BTC_SessionArchive.Entry entry : entries)
+        {
+            model.addRow(new Object[]
+            {
+                dateFormat.format(new Date(entry.getTime())),
+                entry.getType() != null ? entry.getType() : "",
+                entry.getText()
+            });
+        }
+
+        final JTable table = new JTable(model);
+        table.getColumnModel().getColumn(2).setPreferredWidth(600);
+        table.setPreferredScrollableViewportSize(new Dimension(900, Math.min(entries.size(), 25) * table.getRowHeight()));
+
+        JOptionPane.showMessageDialog(this, new JScrollPane(table), "Search Archive - " + player.getName() + " (" + entries.size() + ")", JOptionPane.PLAIN_MESSAGE);
+    }
+
     public void copyToClipboard(final String myString)
     {
         Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(myString), null);
@@ -474,7 +952,7 @@ public class BTC_MainPanel extends javax.swing.JFrame
         splitPane = new javax.swing.JSplitPane();
         jPanel3 = new javax.swing.JPanel();
         mainOutputScoll = new javax.swing.JScrollPane();
-        mainOutput = new javax.swing.JTextPane();
+        mainOutput = new me.StevenLawson.BukkitTelnetClient.BTC_ConsoleView();
         btnSend = new javax.swing.JButton();
         txtServer = new javax.swing.JComboBox<>();
         txtCommand = new javax.swing.JTextField();
@@ -490,6 +968,7 @@ public class BTC_MainPanel extends javax.swing.JFrame
         jMenuBar2 = new javax.swing.JMenuBar();
         jMenu3 = new javax.swing.JMenu();
         ClearOutputMenu = new javax.swing.JMenuItem();
+        SearchArchiveMenu = new javax.swing.JMenuItem();
         ExitButton = new javax.swing.JMenuItem();
         FavoriteButtonsMenu = new BTC_FavoriteButtonsMenu(favButtonList);
         SettingsMenu = new javax.swing.JMenu();
@@ -506,10 +985,8 @@ public class BTC_MainPanel extends javax.swing.JFrame
 
         splitPane.setResizeWeight(1.0);
 
-        mainOutput.setEditable(false);
         mainOutput.setBorder(javax.swing.BorderFactory.createEmptyBorder(1, 1, 1, 1));
         mainOutput.setFont(new java.awt.Font("Courier New", 0, 12)); // NOI18N
-        mainOutput.setCaretColor(new java.awt.Color(255, 255, 255));
         mainOutputScoll.setViewportView(mainOutput);
 
         btnSend.setText("Send");
@@ -582,7 +1059,6 @@ public class BTC_MainPanel extends javax.swing.JFrame
 
         splitPane.setLeftComponent(jPanel3);
 
-        tblPlayers.setAutoCreateRowSorter(true);
         tblPlayers.setSelectionMode(javax.swing.ListSelectionModel.SINGLE_SELECTION);
         tblPlayersScroll.setViewportView(tblPlayers);
         tblPlayers.getColumnModel().getSelectionModel().setSelectionMode(javax.swing.ListSelectionModel.SINGLE_SELECTION);
@@ -632,6 +1108,14 @@ public class BTC_MainPanel extends javax.swing.JFrame
         });
         jMenu3.add(ClearOutputMenu);
 
+        SearchArchiveMenu.setText("Search Archive...");
+        SearchArchiveMenu.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                SearchArchiveMenuActionPerformed(evt);
+            }
+        });
+        jMenu3.add(SearchArchiveMenu);
+
         ExitButton.setText("Quit");
         ExitButton.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -744,9 +1228,14 @@ public class BTC_MainPanel extends javax.swing.JFrame
     }//GEN-LAST:event_ExitButtonActionPerformed
 
     private void ClearOutputMenuActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_ClearOutputMenuActionPerformed
-        mainOutput.setText(null);
+        mainOutput.clear();
+        consoleFindBar.hitsChanged();
     }//GEN-LAST:event_ClearOutputMenuActionPerformed
 
+    private void SearchArchiveMenuActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_SearchArchiveMenuActionPerformed
+        new BTC_ArchiveSearchDialog(this, getConnectionManager().hasServerAddress() ? getConnectionManager().getServerAddress() : null).setVisible(true);
+    }//GEN-LAST:event_SearchArchiveMenuActionPerformed
+
     private void btnToggleConnectActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnToggleConnectActionPerformed
         if (btnToggleConnect.getText().equalsIgnoreCase("connect")) {
             saveServersAndTriggerConnect();
@@ -760,6 +1249,7 @@ public class BTC_MainPanel extends javax.swing.JFrame
     private javax.swing.JMenuItem ClearOutputMenu;
     private javax.swing.JMenuItem ExitButton;
     private javax.swing.JMenu FavoriteButtonsMenu;
+    private javax.swing.JMenuItem SearchArchiveMenu;
     private javax.swing.JMenu SettingsMenu;
     private javax.swing.JButton btnSend;
     private javax.swing.JButton btnToggleConnect;
@@ -778,7 +1268,7 @@ public class BTC_MainPanel extends javax.swing.JFrame
     private javax.swing.JPanel jPanel2;
     private javax.swing.JPanel jPanel3;
     private javax.swing.JTabbedPane jTabbedPane1;
-    private javax.swing.JTextPane mainOutput;
+    private me.StevenLawson.BukkitTelnetClient.BTC_ConsoleView mainOutput;
     private javax.swing.JScrollPane mainOutputScoll;
     private javax.swing.JSplitPane splitPane;
     private javax.swing.JTable tblPlayers;
@@ -798,7 +1288,7 @@ public class BTC_MainPanel extends javax.swing.JFrame
         return btnToggleConnect;
     }
 
-    public javax.swing.JTextPane getMainOutput()
+    public BTC_ConsoleView getMainOutput()
     {
         return mainOutput;
     }
@@ -845,11 +1335,16 @@ public class BTC_MainPanel extends javax.swing.JFrame
 
     public List<PlayerInfo> getPlayerList()
     {
-        return playerList;
+        return playerSnapshot.get().getPlayers();
     }
 
     public BTC_ConnectionManager getConnectionManager()
     {
         return connectionManager;
     }
+
+    public BTC_SessionLogWriter getSessionLogWriter()
+    {
+        return sessionLogWriter;
+    }
 }
@@ -0,0 +1,66 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.Color;
+
+// A user defined message class from ftc_settings.xml, as compiled into the classifier.
+public class BTC_MessageClass
+{
+    private final int id;
+    private final String name;
+    private final Color color;
+    private final int paletteIndex;
+    private final boolean hidden;
+
+    public BTC_MessageClass(final int id, final String name, final Color color, final boolean hidden)
+    {
+        this.id = id;
+        this.name = name;
+        this.color = color;
+        this.paletteIndex = BTC_ConsolePalette.indexOf(color);
+        this.hidden = hidden;
+    }
+
+    // Stored as the line type in the console, after the built-in BTC_LogMessageType ids.
+    public int getId()
+    {
+        return id;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public Color getColor()
+    {
+        return color;
+    }
+
+    public int getPaletteIndex()
+    {
+        return paletteIndex;
+    }
+
+    public boolean isHidden()
+    {
+        return hidden;
+    }
+}
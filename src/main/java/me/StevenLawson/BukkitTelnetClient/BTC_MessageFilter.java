@@ -0,0 +1,46 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.util.BitSet;
+
+// Immutable set of hidden message type / class ids, safe to hand to other threads.
+public final class BTC_MessageFilter
+{
+    public static final BTC_MessageFilter NONE = new BTC_MessageFilter(new BitSet());
+
+    private final long[] hiddenIds;
+
+    public BTC_MessageFilter(final BitSet hiddenIds)
+    {
+        this.hiddenIds = hiddenIds.toLongArray();
+    }
+
+    public boolean isHidden(final int id)
+    {
+        final int word = id >>> 6;
+        return word < this.hiddenIds.length && (this.hiddenIds[word] & (1L << id)) != 0;
+    }
+
+    // A line is hidden if either its type or its user defined class is.
+    public boolean isHidden(final int type, final int messageClass)
+    {
+        return isHidden(type) || (messageClass != BTC_ConsoleLineStore.TYPE_NONE && isHidden(messageClass));
+    }
+}
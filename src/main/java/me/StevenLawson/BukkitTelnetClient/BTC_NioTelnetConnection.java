@@ -0,0 +1,437 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class BTC_NioTelnetConnection implements BTC_TelnetConnection
+{
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // RFC 854
+    private static final int IAC = 255;
+    private static final int DONT = 254;
+    private static final int DO = 253;
+    private static final int WONT = 252;
+    private static final int WILL = 251;
+    private static final int SB = 250;
+    private static final int SE = 240;
+
+    private static final int STATE_DATA = 0;
+    private static final int STATE_IAC = 1;
+    private static final int STATE_OPTION = 2;
+    private static final int STATE_SB = 3;
+    private static final int STATE_SB_IAC = 4;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+
+    // Everything below is confined to the engine thread.
+    private BTC_NioTelnetEngine engine;
+    private Listener listener;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean closed = false;
+
+    private int telnetState = STATE_DATA;
+    private int telnetCommand;
+    private byte[] lineBuffer = new byte[512];
+    private int lineLength = 0;
+    private boolean lastWasCR = false;
+
+    private volatile boolean connected = false;
+
+    public BTC_NioTelnetConnection()
+    {
+    }
+
+    @Override
+    public void connect(final String hostname, final int port, final Listener listener)
+    {
+        this.listener = listener;
+
+        try
+        {
+            this.engine = BTC_NioTelnetEngine.getInstance();
+        }
+        catch (IOException ex)
+        {
+            listener.onDisconnected(ex);
+            return;
+        }
+
+        // Resolve off the engine thread, a slow DNS lookup must not stall the other connections.
+        CompletableFuture.supplyAsync(() -> new InetSocketAddress(hostname, port)).whenComplete((address, ex) -> engine.execute(() ->
+        {
+            if (ex != null)
+            {
+                close(new IOException(ex.getCause() != null ? ex.getCause() : ex));
+            }
+            else
+            {
+                open(address);
+            }
+        }));
+    }
+
+    private void open(final InetSocketAddress address)
+    {
+        // Disconnected while the lookup was running, the listener already knows.
+        if (this.closed)
+        {
+            return;
+        }
+
+        if (address.isUnresolved())
+        {
+            close(new UnknownHostException(address.getHostString()));
+            return;
+        }
+
+        try
+        {
+            this.channel = SocketChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            final boolean connectedNow = this.channel.connect(address);
+            this.key = engine.register(this.channel, connectedNow ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+
+            if (this.closed)
+            {
+                releaseChannel();
+                return;
+            }
+
+            if (connectedNow)
+            {
+                onConnected();
+            }
+        }
+        catch (IOException ex)
+        {
+            close(ex);
+        }
+        catch (ClosedSelectorException ex)
+        {
+            close(new IOException(ex));
+        }
+    }
+
+    private void onConnected()
+    {
+        this.connected = true;
+        updateWriteInterest();
+        this.listener.onConnected();
+    }
+
+    public void handle(final SelectionKey selectedKey)
+    {
+        try
+        {
+            if (selectedKey.isValid() && selectedKey.isConnectable())
+            {
+                if (this.channel.finishConnect())
+                {
+                    selectedKey.interestOps(SelectionKey.OP_READ);
+                    onConnected();
+                }
+            }
+
+            if (selectedKey.isValid() && selectedKey.isReadable())
+            {
+                read();
+            }
+
+            if (selectedKey.isValid() && selectedKey.isWritable())
+            {
+                flushWriteQueue();
+            }
+        }
+        catch (IOException ex)
+        {
+            close(ex);
+        }
+    }
+
+    // One buffer per readiness event, so a flooding server can't starve the other connections.
+    private void read() throws IOException
+    {
+        final int read = this.channel.read(this.readBuffer);
+        if (read < 0)
+        {
+            if (this.lineLength > 0)
+            {
+                emitLine();
+            }
+            close(null);
+            return;
+        }
+
+        this.readBuffer.flip();
+        decode();
+        this.readBuffer.clear();
+    }
+
+    private void decode()
+    {
+        final ByteBuffer buffer = this.readBuffer;
+        while (buffer.hasRemaining())
+        {
+            final int b = buffer.get() & 0xFF;
+
+            switch (this.telnetState)
+            {
+                case STATE_DATA:
+                {
+                    if (b == IAC)
+                    {
+                        this.telnetState = STATE_IAC;
+                    }
+                    else
+                    {
+                        data(b);
+                    }
+                    break;
+                }
+                case STATE_IAC:
+                {
+                    switch (b)
+                    {
+                        case IAC:
+                        {
+                            data(b);
+                            this.telnetState = STATE_DATA;
+                            break;
+                        }
+                        case DO:
+                        case DONT:
+                        case WILL:
+                        case WONT:
+                        {
+                            this.telnetCommand = b;
+                            this.telnetState = STATE_OPTION;
+                            break;
+                        }
+                        case SB:
+                        {
+                            this.telnetState = STATE_SB;
+                            break;
+                        }
+                        default:
+                        {
+                            this.telnetState = STATE_DATA;
+                            break;
+                        }
+                    }
+                    break;
+                }
+                case STATE_OPTION:
+                {
+                    negotiate(this.telnetCommand, b);
+                    this.telnetState = STATE_DATA;
+                    break;
+                }
+                case STATE_SB:
+                {
+                    if (b == IAC)
+                    {
+                        this.telnetState = STATE_SB_IAC;
+                    }
+                    break;
+                }
+                case STATE_SB_IAC:
+                {
+                    this.telnetState = (b == SE ? STATE_DATA : STATE_SB);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Same framing as BufferedReader.readLine(): a line ends at CR, LF or CRLF. CR NUL is a bare CR in telnet.
+    private void data(final int b)
+    {
+        if (b == '\n' || (b == 0 && this.lastWasCR))
+        {
+            if (!this.lastWasCR)
+            {
+                emitLine();
+            }
+            this.lastWasCR = false;
+            return;
+        }
+
+        if (b == '\r')
+        {
+            emitLine();
+            this.lastWasCR = true;
+            return;
+        }
+
+        this.lastWasCR = false;
+
+        if (this.lineLength == this.lineBuffer.length)
+        {
+            this.lineBuffer = Arrays.copyOf(this.lineBuffer, this.lineBuffer.length * 2);
+        }
+        this.lineBuffer[this.lineLength++] = (byte) b;
+    }
+
+    private void emitLine()
+    {
+        final String line = new String(this.lineBuffer, 0, this.lineLength, StandardCharsets.UTF_8);
+        this.lineLength = 0;
+        this.listener.onLine(line);
+    }
+
+    // We don't support any options, refuse everything the server offers or asks for.
+    private void negotiate(final int command, final int option)
+    {
+        if (command == DO)
+        {
+            queueWrite(ByteBuffer.wrap(new byte[]
+            {
+                (byte) IAC, (byte) WONT, (byte) option
+            }));
+        }
+        else if (command == WILL)
+        {
+            queueWrite(ByteBuffer.wrap(new byte[]
+            {
+                (byte) IAC, (byte) DONT, (byte) option
+            }));
+        }
+    }
+
+    @Override
+    public void send(final String text) throws IOException
+    {
+        if (!this.connected)
+        {
+            return;
+        }
+
+        queueWrite(ByteBuffer.wrap((text + "\r\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void queueWrite(final ByteBuffer buffer)
+    {
+        this.writeQueue.add(buffer);
+
+        if (this.engine.isEngineThread())
+        {
+            updateWriteInterest();
+        }
+        else
+        {
+            this.engine.execute(this::updateWriteInterest);
+        }
+    }
+
+    private void updateWriteInterest()
+    {
+        if (this.key == null || !this.key.isValid() || !this.connected)
+        {
+            return;
+        }
+
+        if (this.writeQueue.isEmpty())
+        {
+            this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+        else
+        {
+            this.key.interestOps(this.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void flushWriteQueue() throws IOException
+    {
+        ByteBuffer buffer;
+        while ((buffer = this.writeQueue.peek()) != null)
+        {
+            this.channel.write(buffer);
+            if (buffer.hasRemaining())
+            {
+                return;
+            }
+            this.writeQueue.poll();
+        }
+
+        updateWriteInterest();
+    }
+
+    @Override
+    public void disconnect() throws IOException
+    {
+        if (this.engine != null)
+        {
+            this.engine.execute(() -> close(null));
+        }
+    }
+
+    // Also called by the engine when its selector fails.
+    void close(final IOException cause)
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        this.closed = true;
+        this.connected = false;
+
+        releaseChannel();
+
+        this.writeQueue.clear();
+        this.listener.onDisconnected(cause);
+    }
+
+    private void releaseChannel()
+    {
+        if (this.key != null)
+        {
+            this.key.cancel();
+            this.engine.unregister(this);
+        }
+
+        if (this.channel != null)
+        {
+            try
+            {
+                this.channel.close();
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+// One selector thread shared by every open BTC_NioTelnetConnection.
+public class BTC_NioTelnetEngine implements Runnable
+{
+    private static BTC_NioTelnetEngine instance = null;
+
+    private final Selector selector;
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final Thread engineThread;
+    private volatile boolean stopped = false;
+    // Engine thread only.
+    private final Set<BTC_NioTelnetConnection> connections = new HashSet<>();
+
+    private BTC_NioTelnetEngine() throws IOException
+    {
+        this.selector = Selector.open();
+        this.engineThread = new Thread(this, "BTC-NioTelnetEngine");
+        this.engineThread.setDaemon(true);
+        this.engineThread.start();
+    }
+
+    public static synchronized BTC_NioTelnetEngine getInstance() throws IOException
+    {
+        if (instance == null)
+        {
+            instance = new BTC_NioTelnetEngine();
+        }
+
+        return instance;
+    }
+
+    private static synchronized void shutdown(final BTC_NioTelnetEngine engine)
+    {
+        if (instance == engine)
+        {
+            instance = null;
+        }
+    }
+
+    // Runs the task on the engine thread, channels and keys are only ever touched from there.
+    // Once the engine has stopped the task runs right away, it finds the selector closed and gives up.
+    public void execute(final Runnable task)
+    {
+        this.pendingTasks.add(task);
+        if (this.stopped)
+        {
+            runPendingTasks();
+        }
+        else
+        {
+            this.selector.wakeup();
+        }
+    }
+
+    private synchronized void runPendingTasks()
+    {
+        Runnable task;
+        while ((task = this.pendingTasks.poll()) != null)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (RuntimeException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    public boolean isEngineThread()
+    {
+        return Thread.currentThread() == this.engineThread;
+    }
+
+    public SelectionKey register(final SelectableChannel channel, final int ops, final BTC_NioTelnetConnection connection) throws ClosedChannelException
+    {
+        final SelectionKey key = channel.register(this.selector, ops, connection);
+        this.connections.add(connection);
+        return key;
+    }
+
+    public void unregister(final BTC_NioTelnetConnection connection)
+    {
+        this.connections.remove(connection);
+    }
+
+    // Nothing is selected any more, every connection still registered has to be told it's gone.
+    private void closeAll(final IOException cause)
+    {
+        for (final BTC_NioTelnetConnection connection : new ArrayList<>(this.connections))
+        {
+            try
+            {
+                connection.close(cause);
+            }
+            catch (RuntimeException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            }
+        }
+        this.connections.clear();
+
+        try
+        {
+            this.selector.close();
+        }
+        catch (IOException ex)
+        {
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                this.selector.select();
+
+                runPendingTasks();
+
+                final Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext())
+                {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+
+                    final BTC_NioTelnetConnection connection = (BTC_NioTelnetConnection) key.attachment();
+                    try
+                    {
+                        connection.handle(key);
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                    }
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException ex)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            shutdown(this);
+            closeAll(ex instanceof IOException ? (IOException) ex : new IOException(ex));
+            this.stopped = true;
+            runPendingTasks();
+        }
+    }
+}
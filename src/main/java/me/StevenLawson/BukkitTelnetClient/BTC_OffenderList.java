@@ -0,0 +1,438 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+// Ban list of UUIDs and IPs. The text list (one UUID or IP per line, # for comments) is compiled once
+// into an index file: a Bloom filter followed by the sorted 16 byte keys, UUIDs as their 128 bits and
+// IPs as IPv6 (IPv4 mapped). The index is memory mapped, so startup only reads its header, most
+// misses stop at the Bloom filter and hits are confirmed by binary search.
+public final class BTC_OffenderList
+{
+    public static final BTC_OffenderList EMPTY = new BTC_OffenderList(null, 0, 0, 0, 0);
+
+    private static final String LIST_FILE = "bans.txt";
+    private static final String INDEX_FILE = "bans.idx";
+    private static final int INDEX_MAGIC = 0x46544342;
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int KEY_SIZE = 16;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final long UUID_SEED = 0x9E3779B97F4A7C15L;
+    private static final long IP_SEED = 0xC2B2AE3D27D4EB4FL;
+
+    private static volatile BTC_OffenderList current = EMPTY;
+
+    private final ByteBuffer index;
+    private final long bloomMask;
+    private final int uuidCount;
+    private final int ipCount;
+    private final int keysOffset;
+
+    private BTC_OffenderList(final ByteBuffer index, final int bloomWords, final int uuidCount, final int ipCount, final int keysOffset)
+    {
+        this.index = index;
+        this.bloomMask = bloomWords * 64L - 1;
+        this.uuidCount = uuidCount;
+        this.ipCount = ipCount;
+        this.keysOffset = keysOffset;
+    }
+
+    public static BTC_OffenderList getCurrent()
+    {
+        return current;
+    }
+
+    // Compiles the list if the index is missing or older than it, maps the index and makes it current.
+    // Runs on its own thread, the callback gets the new list there.
+    public static void load(final Consumer<BTC_OffenderList> callback)
+    {
+        final Thread thread = new Thread(() ->
+        {
+            final File list = new File(LIST_FILE);
+            final File index = new File(INDEX_FILE);
+
+            try
+            {
+                if (list.isFile() && !isUpToDate(index, list))
+                {
+                    compile(list, index);
+                }
+
+                if (index.isFile())
+                {
+                    current = open(index);
+                    callback.accept(current);
+                }
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            }
+        }, "BTC-OffenderList");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int size()
+    {
+        return uuidCount + ipCount;
+    }
+
+    public boolean isOffender(final String uuid, final String ip)
+    {
+        return isBannedUuid(uuid) || isBannedIp(ip);
+    }
+
+    public boolean isBannedUuid(final String uuid)
+    {
+        if (uuidCount == 0 || uuid == null)
+        {
+            return false;
+        }
+
+        final long[] key = parseUuid(uuid);
+        return key != null && contains(key[0], key[1], UUID_SEED, keysOffset, uuidCount);
+    }
+
+    public boolean isBannedIp(final String ip)
+    {
+        if (ipCount == 0 || ip == null)
+        {
+            return false;
+        }
+
+        final long[] key = BTC_IpAddress.parse(ip);
+        return key != null && contains(key[0], key[1], IP_SEED, keysOffset + uuidCount * KEY_SIZE, ipCount);
+    }
+
+    private boolean contains(final long high, final long low, final long seed, final int offset, final int count)
+    {
+        final long hash1 = mix(high ^ seed) ^ low;
+        final long hash2 = mix(low ^ hash1) | 1;
+        long hash = mix(hash1);
+        for (int i = 0; i < BLOOM_HASHES; i++, hash += hash2)
+        {
+            final long bit = hash & bloomMask;
+            if ((index.getLong(HEADER_SIZE + (int) (bit >>> 6) * 8) & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+
+        int lowIndex = 0;
+        int highIndex = count - 1;
+        while (lowIndex <= highIndex)
+        {
+            final int middle = (lowIndex + highIndex) >>> 1;
+            final int position = offset + middle * KEY_SIZE;
+            int result = Long.compareUnsigned(index.getLong(position), high);
+            if (result == 0)
+            {
+                result = Long.compareUnsigned(index.getLong(position + 8), low);
+            }
+
+            if (result < 0)
+            {
+                lowIndex = middle + 1;
+            }
+            else if (result > 0)
+            {
+                highIndex = middle - 1;
+            }
+            else
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isUpToDate(final File index, final File list) throws IOException
+    {
+        if (!index.isFile() || index.length() < HEADER_SIZE)
+        {
+            return false;
+        }
+
+        try (final DataInputStream input = new DataInputStream(new FileInputStream(index)))
+        {
+            return input.readInt() == INDEX_MAGIC
+                    && input.readInt() == INDEX_VERSION
+                    && input.readLong() == list.length()
+                    && input.readLong() == list.lastModified();
+        }
+    }
+
+    private static BTC_OffenderList open(final File file) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " is too large");
+            }
+
+            final MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (index.limit() < HEADER_SIZE || index.getInt(0) != INDEX_MAGIC || index.getInt(4) != INDEX_VERSION)
+            {
+                throw new IOException(file + " isn't a ban list index");
+            }
+
+            final int bloomWords = index.getInt(24);
+            final int uuidCount = index.getInt(32);
+            final int ipCount = index.getInt(36);
+            final int keysOffset = HEADER_SIZE + bloomWords * 8;
+            if (Integer.bitCount(bloomWords) != 1 || index.getInt(28) != BLOOM_HASHES || (long) keysOffset + (long) (uuidCount + ipCount) * KEY_SIZE != index.limit())
+            {
+                throw new IOException(file + " is damaged");
+            }
+
+            return new BTC_OffenderList(index, bloomWords, uuidCount, ipCount, keysOffset);
+        }
+    }
+
+    private static void compile(final File list, final File index) throws IOException
+    {
+        final long listLength = list.length();
+        final long listModified = list.lastModified();
+
+        final KeyList uuids = new KeyList();
+        final KeyList ips = new KeyList();
+        int skipped = 0;
+
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(list), StandardCharsets.UTF_8), 64 * 1024))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                final String entry = firstToken(line);
+                if (entry.isEmpty())
+                {
+                    continue;
+                }
+
+                long[] key = parseUuid(entry);
+                if (key != null)
+                {
+                    uuids.add(key[0], key[1]);
+                    continue;
+                }
+
+                key = BTC_IpAddress.parse(entry);
+                if (key != null)
+                {
+                    ips.add(key[0], key[1]);
+                    continue;
+                }
+
+                skipped++;
+            }
+        }
+
+        if (skipped > 0)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.WARNING, "Skipped {0} lines of {1} that aren''t a UUID or an IP", new Object[]
+            {
+                skipped, list
+            });
+        }
+
+        uuids.sortAndDeduplicate();
+        ips.sortAndDeduplicate();
+
+        final int bloomWords = Math.max(1, Integer.highestOneBit(Math.max(1, (uuids.size + ips.size) * BLOOM_BITS_PER_KEY / 64 - 1)) << 1);
+        final BTC_OffenderList bloomOnly = new BTC_OffenderList(null, bloomWords, 0, 0, 0);
+        final long[] bloom = new long[bloomWords];
+        bloomOnly.addAll(bloom, uuids, UUID_SEED);
+        bloomOnly.addAll(bloom, ips, IP_SEED);
+
+        final File temp = new File(index.getPath() + ".tmp");
+        try (final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024)))
+        {
+            output.writeInt(INDEX_MAGIC);
+            output.writeInt(INDEX_VERSION);
+            output.writeLong(listLength);
+            output.writeLong(listModified);
+            output.writeInt(bloomWords);
+            output.writeInt(BLOOM_HASHES);
+            output.writeInt(uuids.size);
+            output.writeInt(ips.size);
+
+            for (final long word : bloom)
+            {
+                output.writeLong(word);
+            }
+            uuids.writeTo(output);
+            ips.writeTo(output);
+        }
+
+        Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void addAll(final long[] bloom, final KeyList keys, final long seed)
+    {
+        for (int i = 0; i < keys.size; i++)
+        {
+            final long high = keys.keys[i * 2];
+            final long low = keys.keys[i * 2 + 1];
+
+            final long hash1 = mix(high ^ seed) ^ low;
+            final long hash2 = mix(low ^ hash1) | 1;
+            long hash = mix(hash1);
+            for (int j = 0; j < BLOOM_HASHES; j++, hash += hash2)
+            {
+                final long bit = hash & bloomMask;
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    // Murmur3 finalizer.
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static String firstToken(final String line)
+    {
+        final String trimmed = line.trim();
+        if (trimmed.startsWith("#"))
+        {
+            return "";
+        }
+
+        int end = 0;
+        while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end)) && trimmed.charAt(end) != '#')
+        {
+            end++;
+        }
+        return trimmed.substring(0, end);
+    }
+
+    // 32 hex digits, dashes anywhere are ignored.
+    private static long[] parseUuid(final String uuid)
+    {
+        long high = 0;
+        long low = 0;
+        int digits = 0;
+
+        for (int i = 0; i < uuid.length(); i++)
+        {
+            final char c = uuid.charAt(i);
+            if (c == '-')
+            {
+                continue;
+            }
+
+            final int digit = Character.digit(c, 16);
+            if (digit < 0 || digits == 32)
+            {
+                return null;
+            }
+
+            if (digits < 16)
+            {
+                high = (high << 4) | digit;
+            }
+            else
+            {
+                low = (low << 4) | digit;
+            }
+            digits++;
+        }
+
+        return digits == 32 ? new long[]
+        {
+            high, low
+        } : null;
+    }
+
+    // 128 bit keys as (high, low) pairs.
+    private static final class KeyList
+    {
+        private long[] keys = new long[1024];
+        private int size = 0;
+
+        private void add(final long high, final long low)
+        {
+            if (size * 2 == keys.length)
+            {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[size * 2] = high;
+            keys[size * 2 + 1] = low;
+            size++;
+        }
+
+        private void sortAndDeduplicate()
+        {
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++)
+            {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) ->
+            {
+                final int result = Long.compareUnsigned(keys[a * 2], keys[b * 2]);
+                return result != 0 ? result : Long.compareUnsigned(keys[a * 2 + 1], keys[b * 2 + 1]);
+            });
+
+            final long[] sorted = new long[size * 2];
+            int length = 0;
+            for (final int i : order)
+            {
+                if (length > 0 && sorted[length * 2 - 2] == keys[i * 2] && sorted[length * 2 - 1] == keys[i * 2 + 1])
+                {
+                    continue;
+                }
+                sorted[length * 2] = keys[i * 2];
+                sorted[length * 2 + 1] = keys[i * 2 + 1];
+                length++;
+            }
+
+            keys = sorted;
+            size = length;
+        }
+
+        private void writeTo(final DataOutputStream output) throws IOException
+        {
+            for (int i = 0; i < size * 2; i++)
+            {
+                output.writeLong(keys[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.EventQueue;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+// Every (UUID, IP) pair ever seen in a player list, indexed both ways by int ids and appended to a text
+// file as "uuid ip" lines. Used to flag online players who share an IP with another online account, or
+// with a banned one, at any point in their history. Everything runs on the index's own thread.
+public class BTC_PlayerIpIndex
+{
+    private static final String INDEX_DIRECTORY = "sessions";
+    private static final String INDEX_FILE = "ip-index.txt";
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "BTC-PlayerIpIndex");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File file;
+    private Writer output = null;
+
+    private final Map<String, Integer> uuidIds = new HashMap<>();
+    private final Map<String, Integer> ipIds = new HashMap<>();
+    private final List<String> uuids = new ArrayList<>();
+    private IntList[] ipsByUuid = new IntList[1024];
+    private IntList[] uuidsByIp = new IntList[1024];
+
+    // Banned UUIDs seen on each IP.
+    private Predicate<String> bannedUuids = uuid -> false;
+    private int[] bannedByIp = new int[1024];
+
+    public BTC_PlayerIpIndex()
+    {
+        this(new File(INDEX_DIRECTORY, INDEX_FILE));
+    }
+
+    public BTC_PlayerIpIndex(final File file)
+    {
+        this.file = file;
+        this.executor.execute(this::load);
+    }
+
+    // Adds the list's new pairs and works out which of its players to flag. The callback runs on the EDT
+    // with the reason for each flagged UUID.
+    public void update(final List<PlayerInfo> players, final Consumer<Map<String, String>> callback)
+    {
+        this.executor.execute(() ->
+        {
+            boolean added = false;
+            for (final PlayerInfo player : players)
+            {
+                if (isIndexed(player) && addPair(player.getUuid(), player.getIp()))
+                {
+                    added = true;
+                    write(player.getUuid(), player.getIp());
+                }
+            }
+
+            if (added)
+            {
+                flush();
+            }
+
+            final Map<String, String> flags = getFlags(players);
+            EventQueue.invokeLater(() -> callback.accept(flags));
+        });
+    }
+
+    // Rechecks every UUID against the new ban list.
+    public void setBannedUuids(final Predicate<String> bannedUuids)
+    {
+        this.executor.execute(() ->
+        {
+            this.bannedUuids = bannedUuids;
+            Arrays.fill(this.bannedByIp, 0);
+
+            for (int uuid = 0; uuid < this.uuids.size(); uuid++)
+            {
+                if (bannedUuids.test(this.uuids.get(uuid)))
+                {
+                    final IntList ips = this.ipsByUuid[uuid];
+                    for (int i = 0; i < ips.size; i++)
+                    {
+                        this.bannedByIp[ips.values[i]]++;
+                    }
+                }
+            }
+        });
+    }
+
+    private Map<String, String> getFlags(final List<PlayerInfo> players)
+    {
+        // Online players by every IP they've ever been seen on.
+        final Map<Integer, List<PlayerInfo>> onlineByIp = new HashMap<>();
+        for (final PlayerInfo player : players)
+        {
+            final IntList ips = getIps(player);
+            for (int i = 0; ips != null && i < ips.size; i++)
+            {
+                onlineByIp.computeIfAbsent(ips.values[i], key -> new ArrayList<>(2)).add(player);
+            }
+        }
+
+        final Map<String, String> flags = new HashMap<>();
+
+        for (final PlayerInfo player : players)
+        {
+            final IntList ips = getIps(player);
+            if (ips == null)
+            {
+                continue;
+            }
+
+            final boolean banned = this.bannedUuids.test(player.getUuid());
+            final Set<String> sharedWith = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            boolean sharesWithBanned = false;
+
+            for (int i = 0; i < ips.size; i++)
+            {
+                final int ip = ips.values[i];
+
+                for (final PlayerInfo other : onlineByIp.get(ip))
+                {
+                    if (other != player && !other.getUuid().equals(player.getUuid()))
+                    {
+                        sharedWith.add(other.getName());
+                    }
+                }
+
+                if (this.bannedByIp[ip] > (banned ? 1 : 0))
+                {
+                    sharesWithBanned = true;
+                }
+            }
+
+            if (sharesWithBanned && !sharedWith.isEmpty())
+            {
+                flags.put(player.getUuid(), "Shares an IP with a banned account and with " + String.join(", ", sharedWith));
+            }
+            else if (sharesWithBanned)
+            {
+                flags.put(player.getUuid(), "Shares an IP with a banned account");
+            }
+            else if (!sharedWith.isEmpty())
+            {
+                flags.put(player.getUuid(), "Shares an IP with " + String.join(", ", sharedWith));
+            }
+        }
+
+        return flags;
+    }
+
+    private IntList getIps(final PlayerInfo player)
+    {
+        if (!isIndexed(player))
+        {
+            return null;
+        }
+
+        final Integer uuid = this.uuidIds.get(player.getUuid());
+        return uuid != null ? this.ipsByUuid[uuid] : null;
+    }
+
+    private static boolean isIndexed(final PlayerInfo player)
+    {
+        return player.getUuid() != null && !"null".equals(player.getUuid()) && player.getIp() != null && !"null".equals(player.getIp());
+    }
+
+    // False if the pair was already known.
+    private boolean addPair(final String uuidString, final String ipString)
+    {
+        Integer uuid = this.uuidIds.get(uuidString);
+        if (uuid == null)
+        {
+            uuid = this.uuids.size();
+            this.uuidIds.put(uuidString, uuid);
+            this.uuids.add(uuidString);
+            if (uuid == this.ipsByUuid.length)
+            {
+                this.ipsByUuid = Arrays.copyOf(this.ipsByUuid, uuid * 2);
+            }
+            this.ipsByUuid[uuid] = new IntList();
+        }
+
+        Integer ip = this.ipIds.get(ipString);
+        if (ip == null)
+        {
+            ip = this.ipIds.size();
+            this.ipIds.put(ipString, ip);
+            if (ip == this.uuidsByIp.length)
+            {
+                this.uuidsByIp = Arrays.copyOf(this.uuidsByIp, ip * 2);
+                this.bannedByIp = Arrays.copyOf(this.bannedByIp, ip * 2);
+            }
+            this.uuidsByIp[ip] = new IntList();
+        }
+
+        // Players stick to a few IPs, IPs can have many players behind them.
+        final IntList ips = this.ipsByUuid[uuid];
+        final IntList ipUuids = this.uuidsByIp[ip];
+        if (ips.size <= ipUuids.size ? ips.contains(ip) : ipUuids.contains(uuid))
+        {
+            return false;
+        }
+
+        ips.add(ip);
+        ipUuids.add(uuid);
+
+        if (this.bannedUuids.test(uuidString))
+        {
+            this.bannedByIp[ip]++;
+        }
+
+        return true;
+    }
+
+    private void load()
+    {
+        final File directory = this.file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            BukkitTelnetClient.LOGGER.log(Level.WARNING, "Can''t create {0}, the IP index won''t be saved", directory);
+            return;
+        }
+
+        if (this.file.isFile())
+        {
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8), 64 * 1024))
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    final int separator = line.indexOf(' ');
+                    if (separator > 0 && separator < line.length() - 1)
+                    {
+                        addPair(line.substring(0, separator), line.substring(separator + 1));
+                    }
+                }
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                return;
+            }
+        }
+
+        try
+        {
+            this.output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), StandardCharsets.UTF_8), 16 * 1024);
+        }
+        catch (IOException ex)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void write(final String uuid, final String ip)
+    {
+        if (this.output == null)
+        {
+            return;
+        }
+
+        try
+        {
+            this.output.write(uuid);
+            this.output.write(' ');
+            this.output.write(ip);
+            this.output.write('\n');
+        }
+        catch (IOException ex)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            this.output = null;
+        }
+    }
+
+    private void flush()
+    {
+        if (this.output == null)
+        {
+            return;
+        }
+
+        try
+        {
+            this.output.flush();
+        }
+        catch (IOException ex)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            this.output = null;
+        }
+    }
+
+    private static final class IntList
+    {
+        private int[] values = new int[2];
+        private int size = 0;
+
+        private void add(final int value)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private boolean contains(final int value)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                if (values[i] == value)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -19,106 +19,627 @@
 package me.StevenLawson.BukkitTelnetClient;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.json.*;
 
+// Decodes the playerList~ payload in one pass straight into PlayerInfo, without building a JSON tree.
+// Values that are missing or aren't JSON strings come out as "null", like org.json's getString did.
+// Values are compared in place against the previous list, so players whose data didn't change are
+// reused and an unchanged list decodes without allocating. Confined to the connection thread.
 public class BTC_PlayerListDecoder
 {
-    private static final Pattern PLAYER_LIST_MESSAGE = Pattern.compile(":\\[.+@BukkitTelnet\\]\\$ playerList~(.+)");
+    private static final String PLAYER_LIST_MARKER = "@BukkitTelnet]$ playerList~";
+    private static final String PLAYERS_KEY = "players";
+    private static final int MAX_INTERNED_STRINGS = 4096;
 
-    private BTC_PlayerListDecoder()
+    private static final String[] PLAYER_KEYS =
+    {
+        "name",
+        "ip",
+        "displayName",
+        "uuid",
+        "tfm.admin.isAdmin",
+        "tfm.admin.isTelnetAdmin",
+        "tfm.admin.isSeniorAdmin",
+        "tfm.playerdata.getTag",
+        "tfm.essentialsBridge.getNickname"
+    };
+    private static final int KEY_NAME = 0;
+    private static final int KEY_IP = 1;
+    private static final int KEY_DISPLAY_NAME = 2;
+    private static final int KEY_UUID = 3;
+    private static final int KEY_ADMIN = 4;
+    private static final int KEY_TELNET_ADMIN = 5;
+    private static final int KEY_SENIOR_ADMIN = 6;
+    private static final int KEY_TAG = 7;
+    private static final int KEY_NICKNAME = 8;
+
+    private final Reader reader = new Reader();
+
+    // The last list handed out, and its players by UUID for when the order changes.
+    private List<PlayerInfo> previous = Collections.emptyList();
+    private Map<String, PlayerInfo> previousByUuid = Collections.emptyMap();
+    private BTC_OffenderList previousOffenders = null;
+    private boolean changed = false;
+
+    // Tags and nicknames repeat across players and refreshes, only one copy of each is kept.
+    private final Map<String, String> internedStrings = new HashMap<>();
+
+    public BTC_PlayerListDecoder()
     {
-        throw new AssertionError();
     }
 
-    public static final boolean checkForPlayerListMessage(final String message, final List<PlayerInfo> playerList)
+    // The decoded players in payload order, null if the line isn't a valid playerList message.
+    // If nothing changed since the last list, that same list is returned.
+    public List<PlayerInfo> decodePlayerList(final String message)
     {
-        final Matcher matcher = PLAYER_LIST_MESSAGE.matcher(message);
-        if (matcher.find())
+        // Same match as ":\[.+@BukkitTelnet\]\$ playerList~(.+)", lines never contain line breaks.
+        final int marker = message.lastIndexOf(PLAYER_LIST_MARKER);
+        if (marker < 0)
+        {
+            return null;
+        }
+
+        final int prefix = message.indexOf(":[");
+        final int dataStart = marker + PLAYER_LIST_MARKER.length();
+        if (prefix < 0 || marker < prefix + 3 || dataStart == message.length())
+        {
+            return null;
+        }
+
+        final BTC_OffenderList offenders = BTC_OffenderList.getCurrent();
+        if (offenders != this.previousOffenders)
         {
-            final String data = matcher.group(1);
-            try
+            // Offender flags were worked out against another ban list, nothing can be reused.
+            this.previous = Collections.emptyList();
+            this.previousByUuid = Collections.emptyMap();
+            this.previousOffenders = offenders;
+        }
+
+        final List<PlayerInfo> players = this.reader.read(message, dataStart, offenders);
+        if (players == null)
+        {
+            return null;
+        }
+
+        this.changed = this.reader.reusedInPlace != players.size() || players.size() != this.previous.size();
+        if (!this.changed)
+        {
+            return this.previous;
+        }
+
+        this.previous = new ArrayList<>(players);
+        this.previousByUuid = new HashMap<>();
+        for (final PlayerInfo player : this.previous)
+        {
+            this.previousByUuid.put(player.getUuid(), player);
+        }
+
+        return this.previous;
+    }
+
+    // Forgets the last list, for a new connection. Nothing from the old server is reused.
+    public void reset()
+    {
+        this.previous = Collections.emptyList();
+        this.previousByUuid = Collections.emptyMap();
+        this.changed = false;
+    }
+
+    // False if the last decoded list is the same as the one before it.
+    public boolean hasChanged()
+    {
+        return this.changed;
+    }
+
+    private String intern(final String value)
+    {
+        final String interned = this.internedStrings.putIfAbsent(value, value);
+        if (interned != null)
+        {
+            return interned;
+        }
+
+        if (this.internedStrings.size() > MAX_INTERNED_STRINGS)
+        {
+            this.internedStrings.clear();
+        }
+        return value;
+    }
+
+    // Every read method returns the position after what it read, or -1 if the payload is malformed.
+    // Strings are only scanned, the last one's span is kept and it is only turned into a String when needed.
+    private final class Reader
+    {
+        private String text;
+        private int start;
+        private BTC_OffenderList offenders;
+        private final List<PlayerInfo> players = new ArrayList<>();
+        private int reusedInPlace;
+
+        // The current player's string values as spans of the text, start -1 if missing or not a string.
+        private final int[] valueStarts = new int[PLAYER_KEYS.length];
+        private final int[] valueEnds = new int[PLAYER_KEYS.length];
+        private final boolean[] valueEscaped = new boolean[PLAYER_KEYS.length];
+
+        private int stringStart;
+        private int stringEnd;
+        private boolean stringEscaped;
+
+        private List<PlayerInfo> read(final String text, final int start, final BTC_OffenderList offenders)
+        {
+            this.text = text;
+            this.start = start;
+            this.offenders = offenders;
+            this.players.clear();
+            this.reusedInPlace = 0;
+
+            final List<PlayerInfo> result = readPlayerList();
+            this.text = null;
+            return result;
+        }
+
+        private List<PlayerInfo> readPlayerList()
+        {
+            int pos = skipWhitespace(this.start);
+            if (!isAt(pos, '{'))
+            {
+                return null;
+            }
+
+            boolean foundPlayers = false;
+
+            pos = skipWhitespace(pos + 1);
+            if (isAt(pos, '}'))
             {
-                playerList.clear();
+                return null;
+            }
+
+            while (true)
+            {
+                pos = readString(pos);
+                if (pos < 0)
+                {
+                    return null;
+                }
+                final boolean isPlayers = stringEquals(PLAYERS_KEY);
 
-                final JSONObject json = new JSONObject(data);
-                final JSONArrayIterable players = new JSONArrayIterable(json.getJSONArray("players"));
-                for (JSONObject player : players)
+                pos = skipWhitespace(pos);
+                if (!isAt(pos, ':'))
+                {
+                    return null;
+                }
+                pos = skipWhitespace(pos + 1);
+
+                if (isPlayers)
+                {
+                    this.players.clear();
+                    this.reusedInPlace = 0;
+                    pos = readPlayers(pos);
+                    foundPlayers = true;
+                }
+                else
+                {
+                    pos = skipValue(pos);
+                }
+                if (pos < 0)
+                {
+                    return null;
+                }
+
+                pos = skipWhitespace(pos);
+                if (isAt(pos, ','))
+                {
+                    pos = skipWhitespace(pos + 1);
+                }
+                else if (isAt(pos, '}'))
+                {
+                    return foundPlayers ? this.players : null;
+                }
+                else
                 {
-                    final String name = getStringSafe(player, "name");
-                    playerList.add(new PlayerInfo(
-                            name,
-                            getStringSafe(player, "ip"),
-                            getStringSafe(player, "displayName"),
-                            getStringSafe(player, "uuid"),
-                            Boolean.valueOf(getStringSafe(player, "tfm.admin.isAdmin")),
-                            Boolean.valueOf(getStringSafe(player, "tfm.admin.isTelnetAdmin")),
-                            Boolean.valueOf(getStringSafe(player, "tfm.admin.isSeniorAdmin")),
-                            getStringSafe(player, "tfm.playerdata.getTag"),
-                            getStringSafe(player, "tfm.essentialsBridge.getNickname")
-                    ));
+                    return null;
                 }
+            }
+        }
 
-                Collections.sort(playerList, PlayerInfo.getComparator());
+        private int readPlayers(int pos)
+        {
+            if (!isAt(pos, '['))
+            {
+                return -1;
+            }
 
-                return true;
+            pos = skipWhitespace(pos + 1);
+            if (isAt(pos, ']'))
+            {
+                return pos + 1;
             }
-            catch (JSONException ex)
+
+            while (true)
             {
+                pos = readPlayer(pos);
+                if (pos < 0)
+                {
+                    return -1;
+                }
+
+                pos = skipWhitespace(pos);
+                if (isAt(pos, ','))
+                {
+                    pos = skipWhitespace(pos + 1);
+                }
+                else if (isAt(pos, ']'))
+                {
+                    return pos + 1;
+                }
+                else
+                {
+                    return -1;
+                }
             }
         }
 
-        return false;
-    }
+        private int readPlayer(int pos)
+        {
+            if (!isAt(pos, '{'))
+            {
+                return -1;
+            }
 
-    private static String getStringSafe(JSONObject player, String key)
-    {
-        try
+            Arrays.fill(this.valueStarts, -1);
+
+            pos = skipWhitespace(pos + 1);
+            if (!isAt(pos, '}'))
+            {
+                while (true)
+                {
+                    if (!isAt(pos, '"'))
+                    {
+                        return -1;
+                    }
+                    final int key = findKey(pos + 1);
+                    pos = key >= 0 ? pos + PLAYER_KEYS[key].length() + 2 : readString(pos);
+                    if (pos < 0)
+                    {
+                        return -1;
+                    }
+
+                    pos = skipWhitespace(pos);
+                    if (!isAt(pos, ':'))
+                    {
+                        return -1;
+                    }
+                    pos = skipWhitespace(pos + 1);
+
+                    if (key >= 0 && isAt(pos, '"'))
+                    {
+                        pos = readString(pos);
+                        this.valueStarts[key] = this.stringStart;
+                        this.valueEnds[key] = this.stringEnd;
+                        this.valueEscaped[key] = this.stringEscaped;
+                    }
+                    else
+                    {
+                        pos = skipValue(pos);
+                        if (key >= 0)
+                        {
+                            this.valueStarts[key] = -1;
+                        }
+                    }
+                    if (pos < 0)
+                    {
+                        return -1;
+                    }
+
+                    pos = skipWhitespace(pos);
+                    if (isAt(pos, ','))
+                    {
+                        pos = skipWhitespace(pos + 1);
+                    }
+                    else if (isAt(pos, '}'))
+                    {
+                        break;
+                    }
+                    else
+                    {
+                        return -1;
+                    }
+                }
+            }
+
+            final int index = this.players.size();
+            final List<PlayerInfo> _previous = BTC_PlayerListDecoder.this.previous;
+
+            // Usually the same player as in the same place last time, otherwise look the UUID up.
+            if (index < _previous.size() && matches(_previous.get(index)))
+            {
+                this.players.add(_previous.get(index));
+                this.reusedInPlace++;
+                return pos + 1;
+            }
+
+            final String uuid = value(KEY_UUID);
+            final PlayerInfo moved = BTC_PlayerListDecoder.this.previousByUuid.get(uuid);
+            if (moved != null && matches(moved))
+            {
+                this.players.add(moved);
+                return pos + 1;
+            }
+
+            final String ip = value(KEY_IP);
+            this.players.add(new PlayerInfo(
+                    value(KEY_NAME),
+                    ip,
+                    value(KEY_DISPLAY_NAME),
+                    uuid,
+                    isTrue(KEY_ADMIN),
+                    isTrue(KEY_TELNET_ADMIN),
+                    isTrue(KEY_SENIOR_ADMIN),
+                    intern(value(KEY_TAG)),
+                    intern(value(KEY_NICKNAME)),
+                    this.offenders.isOffender(uuid, ip)));
+
+            return pos + 1;
+        }
+
+        private boolean matches(final PlayerInfo player)
+        {
+            return valueEquals(KEY_UUID, player.getUuid())
+                    && valueEquals(KEY_NAME, player.getName())
+                    && valueEquals(KEY_IP, player.getIp())
+                    && valueEquals(KEY_DISPLAY_NAME, player.getDisplayName())
+                    && isTrue(KEY_ADMIN) == player.isAdmin()
+                    && isTrue(KEY_TELNET_ADMIN) == player.isTelnetAdmin()
+                    && isTrue(KEY_SENIOR_ADMIN) == player.isSeniorAdmin()
+                    && valueEquals(KEY_TAG, player.getRawTag())
+                    && valueEquals(KEY_NICKNAME, player.getRawNickName());
+        }
+
+        // Same as value(key).equals(other), without creating the value unless it has escapes.
+        private boolean valueEquals(final int key, final String other)
         {
-            return player.getString(key);
+            final int valueStart = this.valueStarts[key];
+            if (valueStart < 0)
+            {
+                return "null".equals(other);
+            }
+
+            if (this.valueEscaped[key])
+            {
+                return decode(valueStart, this.valueEnds[key]).equals(other);
+            }
+
+            final int length = this.valueEnds[key] - valueStart;
+            return other != null && other.length() == length && this.text.regionMatches(valueStart, other, 0, length);
         }
-        catch (JSONException ex)
+
+        // Boolean.parseBoolean(value(key)), "true" in any case.
+        private boolean isTrue(final int key)
         {
-            return "null";
+            final int valueStart = this.valueStarts[key];
+            if (valueStart < 0)
+            {
+                return false;
+            }
+
+            if (this.valueEscaped[key])
+            {
+                return Boolean.parseBoolean(decode(valueStart, this.valueEnds[key]));
+            }
+
+            return this.valueEnds[key] - valueStart == 4 && this.text.regionMatches(true, valueStart, "true", 0, 4);
         }
-    }
 
-    public static final class JSONArrayIterable implements Iterable<JSONObject>
-    {
-        private final JSONArray array;
+        private String value(final int key)
+        {
+            final int valueStart = this.valueStarts[key];
+            if (valueStart < 0)
+            {
+                return "null";
+            }
+
+            return this.valueEscaped[key] ? decode(valueStart, this.valueEnds[key]) : this.text.substring(valueStart, this.valueEnds[key]);
+        }
 
-        public JSONArrayIterable(JSONArray array)
+        private boolean stringEquals(final String other)
         {
-            this.array = array;
+            if (this.stringEscaped)
+            {
+                return decode(this.stringStart, this.stringEnd).equals(other);
+            }
+
+            final int length = this.stringEnd - this.stringStart;
+            return other.length() == length && this.text.regionMatches(this.stringStart, other, 0, length);
+        }
+
+        // Index of the unescaped key starting at pos and followed by its closing quote, -1 for any other key.
+        private int findKey(final int pos)
+        {
+            for (int key = 0; key < PLAYER_KEYS.length; key++)
+            {
+                final String name = PLAYER_KEYS[key];
+                if (this.text.startsWith(name, pos) && isAt(pos + name.length(), '"'))
+                {
+                    return key;
+                }
+            }
+
+            return -1;
         }
 
-        @Override
-        public Iterator<JSONObject> iterator()
+        // Finds the end of the string and whether it has escapes, the escapes are checked here so
+        // decode can't fail later.
+        private int readString(final int pos)
         {
-            return new Iterator<JSONObject>()
+            if (!isAt(pos, '"'))
             {
-                private int index = 0;
-                private final int length = array.length();
+                return -1;
+            }
+
+            boolean escaped = false;
+            int i = pos + 1;
+            while (i < this.text.length())
+            {
+                final char c = this.text.charAt(i);
+                if (c == '"')
+                {
+                    this.stringStart = pos + 1;
+                    this.stringEnd = i;
+                    this.stringEscaped = escaped;
+                    return i + 1;
+                }
+                if (c == '\\')
+                {
+                    escaped = true;
+                    if (i + 1 >= this.text.length())
+                    {
+                        return -1;
+                    }
+                    if (this.text.charAt(i + 1) == 'u')
+                    {
+                        if (i + 6 > this.text.length())
+                        {
+                            return -1;
+                        }
+                        for (int j = i + 2; j < i + 6; j++)
+                        {
+                            if (Character.digit(this.text.charAt(j), 16) < 0)
+                            {
+                                return -1;
+                            }
+                        }
+                        i += 6;
+                        continue;
+                    }
+                    i += 2;
+                    continue;
+                }
+                i++;
+            }
+
+            return -1;
+        }
+
+        // The string between start and end with its escapes resolved, end is its closing quote.
+        private String decode(final int start, final int end)
+        {
+            final StringBuilder builder = new StringBuilder(end - start);
 
-                @Override
-                public boolean hasNext()
+            int i = start;
+            while (i < end)
+            {
+                final char c = this.text.charAt(i++);
+                if (c != '\\')
                 {
-                    return index < length;
+                    builder.append(c);
+                    continue;
                 }
 
-                @Override
-                public JSONObject next()
+                final char escaped = this.text.charAt(i++);
+                switch (escaped)
                 {
-                    return array.getJSONObject(index++);
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                    {
+                        int code = 0;
+                        for (int j = 0; j < 4; j++)
+                        {
+                            code = (code << 4) | Character.digit(this.text.charAt(i++), 16);
+                        }
+                        builder.append((char) code);
+                        break;
+                    }
+                    default:
+                        builder.append(escaped);
+                        break;
                 }
+            }
 
-                @Override
-                public void remove()
+            return builder.toString();
+        }
+
+        private int skipValue(int pos)
+        {
+            if (pos >= this.text.length())
+            {
+                return -1;
+            }
+
+            switch (this.text.charAt(pos))
+            {
+                case '"':
+                    return readString(pos);
+                case '{':
+                case '[':
+                {
+                    // Only the brackets matter here, strings are skipped so their contents can't confuse the depth.
+                    int depth = 0;
+                    while (pos < this.text.length())
+                    {
+                        final char c = this.text.charAt(pos);
+                        if (c == '"')
+                        {
+                            pos = readString(pos);
+                            if (pos < 0)
+                            {
+                                return -1;
+                            }
+                            continue;
+                        }
+                        if (c == '{' || c == '[')
+                        {
+                            depth++;
+                        }
+                        else if (c == '}' || c == ']')
+                        {
+                            if (--depth == 0)
+                            {
+                                return pos + 1;
+                            }
+                        }
+                        pos++;
+                    }
+                    return -1;
+                }
+                default:
                 {
-                    throw new UnsupportedOperationException();
+                    // Numbers, true, false and null.
+                    final int valueStart = pos;
+                    while (pos < this.text.length() && ",}] \t\r\n".indexOf(this.text.charAt(pos)) < 0)
+                    {
+                        pos++;
+                    }
+                    return pos > valueStart ? pos : -1;
                 }
-            };
+            }
+        }
+
+        private int skipWhitespace(int pos)
+        {
+            while (pos < this.text.length() && Character.isWhitespace(this.text.charAt(pos)))
+            {
+                pos++;
+            }
+
+            return pos;
+        }
+
+        private boolean isAt(final int pos, final char c)
+        {
+            return pos < this.text.length() && this.text.charAt(pos) == c;
         }
     }
 }
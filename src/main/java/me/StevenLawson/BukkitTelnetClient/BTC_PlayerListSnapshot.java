@@ -0,0 +1,273 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.util.*;
+
+// Immutable player list with its lookup indexes, built off the EDT and handed to the table as a whole.
+// Each snapshot also records how it differs from the one it was built from, so the table can fire
+// row level events. Rows are kept in the previous snapshot's order with new players appended.
+// The players that joined and left since the previous snapshot are kept for the session history.
+public final class BTC_PlayerListSnapshot
+{
+    public static final BTC_PlayerListSnapshot EMPTY = new BTC_PlayerListSnapshot(0, Collections.emptyList(), new int[0], new int[0], 0, false, Collections.emptyList());
+
+    private final long version;
+    private final List<PlayerInfo> players;
+    private final Map<String, Integer> rowsByName = new HashMap<>();
+    private final Map<String, Integer> rowsByUuid = new HashMap<>();
+
+    // Changes since the snapshot with version - 1, as inclusive (first, last) row pairs.
+    private final int[] removedRuns;
+    private final int[] updatedRuns;
+    private final int keptCount;
+    private final boolean replaced;
+    private final List<PlayerInfo> joined;
+    private final List<PlayerInfo> left;
+
+    private BTC_PlayerListSnapshot(final long version, final List<PlayerInfo> players, final int[] removedRuns, final int[] updatedRuns, final int keptCount, final boolean replaced, final List<PlayerInfo> left)
+    {
+        this.version = version;
+        this.players = Collections.unmodifiableList(players);
+        this.removedRuns = removedRuns;
+        this.updatedRuns = updatedRuns;
+        this.keptCount = keptCount;
+        this.replaced = replaced;
+        this.joined = Collections.unmodifiableList(players.subList(keptCount, players.size()));
+        this.left = Collections.unmodifiableList(left);
+
+        for (int row = 0; row < players.size(); row++)
+        {
+            final PlayerInfo player = players.get(row);
+            this.rowsByName.put(player.getName(), row);
+            if (hasUuid(player))
+            {
+                this.rowsByUuid.put(player.getUuid(), row);
+            }
+        }
+    }
+
+    // Matches players by UUID (by name for players without one) against the previous snapshot.
+    public static BTC_PlayerListSnapshot update(final BTC_PlayerListSnapshot previous, final List<PlayerInfo> players)
+    {
+        final long version = previous.version + 1;
+
+        final Map<String, PlayerInfo> newPlayers = new HashMap<>();
+        for (final PlayerInfo player : players)
+        {
+            if (newPlayers.put(getKey(player), player) != null)
+            {
+                return replace(version, previous, players);
+            }
+        }
+
+        final Set<String> previousKeys = new HashSet<>();
+        for (final PlayerInfo player : previous.players)
+        {
+            if (!previousKeys.add(getKey(player)))
+            {
+                return replace(version, previous, players);
+            }
+        }
+
+        final List<PlayerInfo> rows = new ArrayList<>(players.size());
+        final RunBuilder removed = new RunBuilder();
+        final RunBuilder updated = new RunBuilder();
+        final List<PlayerInfo> left = new ArrayList<>();
+
+        for (int row = 0; row < previous.players.size(); row++)
+        {
+            final PlayerInfo oldPlayer = previous.players.get(row);
+            final PlayerInfo newPlayer = newPlayers.remove(getKey(oldPlayer));
+            if (newPlayer == null)
+            {
+                removed.add(row);
+                left.add(oldPlayer);
+                continue;
+            }
+
+            if (!newPlayer.equals(oldPlayer))
+            {
+                updated.add(rows.size());
+            }
+            rows.add(newPlayer);
+        }
+
+        final int keptCount = rows.size();
+        for (final PlayerInfo player : players)
+        {
+            if (newPlayers.containsKey(getKey(player)))
+            {
+                rows.add(player);
+            }
+        }
+
+        return new BTC_PlayerListSnapshot(version, rows, removed.toReversedArray(), updated.toArray(), keptCount, false, left);
+    }
+
+    // Rows that can't be matched one to one, joins and leaves are still worked out from the keys.
+    private static BTC_PlayerListSnapshot replace(final long version, final BTC_PlayerListSnapshot previous, final List<PlayerInfo> players)
+    {
+        final Set<String> newKeys = new HashSet<>();
+        for (final PlayerInfo player : players)
+        {
+            newKeys.add(getKey(player));
+        }
+
+        final Set<String> previousKeys = new HashSet<>();
+        final List<PlayerInfo> left = new ArrayList<>();
+        for (final PlayerInfo player : previous.players)
+        {
+            if (previousKeys.add(getKey(player)) && !newKeys.contains(getKey(player)))
+            {
+                left.add(player);
+            }
+        }
+
+        // Players seen before go first, so the ones from keptCount on are the ones that joined.
+        final List<PlayerInfo> rows = new ArrayList<>(players.size());
+        final List<PlayerInfo> joined = new ArrayList<>();
+        for (final PlayerInfo player : players)
+        {
+            (previousKeys.contains(getKey(player)) ? rows : joined).add(player);
+        }
+        final int keptCount = rows.size();
+        rows.addAll(joined);
+
+        return new BTC_PlayerListSnapshot(version, rows, new int[0], new int[0], keptCount, true, left);
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public List<PlayerInfo> getPlayers()
+    {
+        return players;
+    }
+
+    public int size()
+    {
+        return players.size();
+    }
+
+    public PlayerInfo get(final int row)
+    {
+        return players.get(row);
+    }
+
+    // Row of the player with this name, -1 if there is none.
+    public int getRowOfName(final String name)
+    {
+        final Integer row = rowsByName.get(name);
+        return row != null ? row : -1;
+    }
+
+    // Row of the player with this UUID, -1 if there is none.
+    public int getRowOfUuid(final String uuid)
+    {
+        final Integer row = rowsByUuid.get(uuid);
+        return row != null ? row : -1;
+    }
+
+    // Runs of removed rows, in the previous snapshot's rows, last run first.
+    public int[] getRemovedRuns()
+    {
+        return removedRuns.clone();
+    }
+
+    // Runs of changed rows, in this snapshot's rows.
+    public int[] getUpdatedRuns()
+    {
+        return updatedRuns.clone();
+    }
+
+    // Rows from keptCount on are new.
+    public int getKeptCount()
+    {
+        return keptCount;
+    }
+
+    // True if the rows couldn't be matched to the previous snapshot at all.
+    public boolean isReplaced()
+    {
+        return replaced;
+    }
+
+    // Players that weren't in the previous snapshot.
+    public List<PlayerInfo> getJoined()
+    {
+        return joined;
+    }
+
+    // Players from the previous snapshot that are gone.
+    public List<PlayerInfo> getLeft()
+    {
+        return left;
+    }
+
+    private static boolean hasUuid(final PlayerInfo player)
+    {
+        return player.getUuid() != null && !"null".equals(player.getUuid());
+    }
+
+    private static String getKey(final PlayerInfo player)
+    {
+        return hasUuid(player) ? player.getUuid() : "name:" + player.getName();
+    }
+
+    private static final class RunBuilder
+    {
+        private int[] runs = new int[8];
+        private int length = 0;
+
+        private void add(final int row)
+        {
+            if (length > 0 && runs[length - 1] == row - 1)
+            {
+                runs[length - 1] = row;
+                return;
+            }
+
+            if (length + 2 > runs.length)
+            {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[length++] = row;
+            runs[length++] = row;
+        }
+
+        private int[] toArray()
+        {
+            return Arrays.copyOf(runs, length);
+        }
+
+        private int[] toReversedArray()
+        {
+            final int[] reversed = new int[length];
+            for (int i = 0; i < length; i += 2)
+            {
+                reversed[length - 2 - i] = runs[i];
+                reversed[length - 1 - i] = runs[i + 1];
+            }
+            return reversed;
+        }
+    }
+}
@@ -0,0 +1,613 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.EventQueue;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+// Append-only log of players joining and leaving, with the whole history indexed in memory by UUID,
+// name and IP. Every string is written once and referred to by id after that, so an event is a fixed
+// 26 bytes on disk and six array slots in memory. Everything runs on the store's own thread.
+public class BTC_PlayerSessionStore
+{
+    private static final String STORE_DIRECTORY = "sessions";
+    private static final String STORE_FILE = "sessions.dat";
+    private static final int FILE_MAGIC = 0x46544353;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_STRING = 1;
+    private static final int RECORD_EVENT = 2;
+    private static final int EVENT_RECORD_SIZE = 1 + 1 + 8 + 4 * 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // A string record has to fit the load buffer along with its 3 byte header.
+    private static final int MAX_STRING_LENGTH = BUFFER_SIZE - 3;
+
+    public enum EventType
+    {
+        JOIN, LEAVE
+    }
+
+    private static final EventType[] EVENT_TYPES = EventType.values();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "BTC-PlayerSessionStore");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File file;
+    private FileChannel output = null;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+
+    // Index lists by string id, so each index map is only hashed once per distinct string.
+    private IntList[] uuidLists = new IntList[1024];
+    private IntList[] nameLists = new IntList[1024];
+    private IntList[] ipLists = new IntList[1024];
+
+    private byte[] types = new byte[1024];
+    private long[] times = new long[1024];
+    private int[] servers = new int[1024];
+    private int[] uuids = new int[1024];
+    private int[] names = new int[1024];
+    private int[] ips = new int[1024];
+    private int eventCount = 0;
+
+    private final Map<String, IntList> eventsByUuid = new HashMap<>();
+    private final Map<String, IntList> eventsByName = new HashMap<>();
+    private final Map<String, IntList> eventsByIp = new HashMap<>();
+
+    public BTC_PlayerSessionStore()
+    {
+        this(new File(STORE_DIRECTORY, STORE_FILE));
+    }
+
+    public BTC_PlayerSessionStore(final File file)
+    {
+        this.file = file;
+        this.executor.execute(this::load);
+    }
+
+    // Called with each new player list, the events are timestamped now.
+    public void record(final String server, final List<PlayerInfo> joined, final List<PlayerInfo> left)
+    {
+        if (joined.isEmpty() && left.isEmpty())
+        {
+            return;
+        }
+
+        final long time = System.currentTimeMillis();
+
+        this.executor.execute(() ->
+        {
+            if (this.output == null)
+            {
+                return;
+            }
+
+            try
+            {
+                for (final PlayerInfo player : left)
+                {
+                    append(EventType.LEAVE, time, server, player);
+                }
+                for (final PlayerInfo player : joined)
+                {
+                    append(EventType.JOIN, time, server, player);
+                }
+                flushBuffer();
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                closeOutput();
+            }
+        });
+    }
+
+    // Events for the player's UUID, or for the name if the server didn't send a UUID. Oldest first.
+    public void findEvents(final PlayerInfo player, final Consumer<List<Event>> callback)
+    {
+        if (player.getUuid() != null && !"null".equals(player.getUuid()))
+        {
+            find(this.eventsByUuid, player.getUuid(), callback);
+        }
+        else
+        {
+            find(this.eventsByName, player.getName().toLowerCase(Locale.ROOT), callback);
+        }
+    }
+
+    public void findEventsByName(final String name, final Consumer<List<Event>> callback)
+    {
+        find(this.eventsByName, name.toLowerCase(Locale.ROOT), callback);
+    }
+
+    public void findEventsByIp(final String ip, final Consumer<List<Event>> callback)
+    {
+        find(this.eventsByIp, ip, callback);
+    }
+
+    // The callback runs on the EDT.
+    private void find(final Map<String, IntList> index, final String key, final Consumer<List<Event>> callback)
+    {
+        this.executor.execute(() ->
+        {
+            final List<Event> events = new ArrayList<>();
+
+            final IntList eventIds = index.get(key);
+            if (eventIds != null)
+            {
+                for (int i = 0; i < eventIds.size; i++)
+                {
+                    events.add(getEvent(eventIds.values[i]));
+                }
+            }
+
+            EventQueue.invokeLater(() -> callback.accept(events));
+        });
+    }
+
+    private Event getEvent(final int event)
+    {
+        return new Event(
+                EVENT_TYPES[this.types[event]],
+                this.times[event],
+                this.strings.get(this.servers[event]),
+                this.strings.get(this.uuids[event]),
+                this.strings.get(this.names[event]),
+                this.strings.get(this.ips[event]));
+    }
+
+    private void append(final EventType type, final long time, final String server, final PlayerInfo player) throws IOException
+    {
+        final int serverId = writeString(server);
+        final int uuidId = writeString(player.getUuid());
+        final int nameId = writeString(player.getName());
+        final int ipId = writeString(player.getIp());
+
+        reserve(EVENT_RECORD_SIZE);
+        this.buffer.put((byte) RECORD_EVENT);
+        this.buffer.put((byte) type.ordinal());
+        this.buffer.putLong(time);
+        this.buffer.putInt(serverId);
+        this.buffer.putInt(uuidId);
+        this.buffer.putInt(nameId);
+        this.buffer.putInt(ipId);
+
+        addEvent(type.ordinal(), time, serverId, uuidId, nameId, ipId);
+    }
+
+    private int writeString(final String string) throws IOException
+    {
+        final String value = string != null ? string : "null";
+
+        final Integer id = this.stringIds.get(value);
+        if (id != null)
+        {
+            return id;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final int length = Math.min(bytes.length, MAX_STRING_LENGTH);
+        reserve(1 + 2 + length);
+        this.buffer.put((byte) RECORD_STRING);
+        this.buffer.putShort((short) length);
+        this.buffer.put(bytes, 0, length);
+
+        return addString(new String(bytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    private void reserve(final int length) throws IOException
+    {
+        if (this.buffer.remaining() < length)
+        {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+        {
+            this.output.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    private int addString(final String value)
+    {
+        final int id = this.strings.size();
+        this.strings.add(value);
+        this.stringIds.putIfAbsent(value, id);
+
+        if (id == this.uuidLists.length)
+        {
+            this.uuidLists = Arrays.copyOf(this.uuidLists, id * 2);
+            this.nameLists = Arrays.copyOf(this.nameLists, id * 2);
+            this.ipLists = Arrays.copyOf(this.ipLists, id * 2);
+        }
+
+        return id;
+    }
+
+    private void addEvent(final int type, final long time, final int server, final int uuid, final int name, final int ip)
+    {
+        if (this.eventCount == this.times.length)
+        {
+            setEventCapacity(this.times.length * 2);
+        }
+
+        final int event = this.eventCount++;
+        this.types[event] = (byte) type;
+        this.times[event] = time;
+        this.servers[event] = server;
+        this.uuids[event] = uuid;
+        this.names[event] = name;
+        this.ips[event] = ip;
+
+        if (this.uuidLists[uuid] == null && !"null".equals(this.strings.get(uuid)))
+        {
+            this.uuidLists[uuid] = this.eventsByUuid.computeIfAbsent(this.strings.get(uuid), key -> new IntList());
+        }
+        if (this.nameLists[name] == null)
+        {
+            this.nameLists[name] = this.eventsByName.computeIfAbsent(this.strings.get(name).toLowerCase(Locale.ROOT), key -> new IntList());
+        }
+        if (this.ipLists[ip] == null)
+        {
+            this.ipLists[ip] = this.eventsByIp.computeIfAbsent(this.strings.get(ip), key -> new IntList());
+        }
+
+        if (this.uuidLists[uuid] != null)
+        {
+            this.uuidLists[uuid].add(event);
+        }
+        this.nameLists[name].add(event);
+        this.ipLists[ip].add(event);
+    }
+
+    private void setEventCapacity(final int capacity)
+    {
+        this.types = Arrays.copyOf(this.types, capacity);
+        this.times = Arrays.copyOf(this.times, capacity);
+        this.servers = Arrays.copyOf(this.servers, capacity);
+        this.uuids = Arrays.copyOf(this.uuids, capacity);
+        this.names = Arrays.copyOf(this.names, capacity);
+        this.ips = Arrays.copyOf(this.ips, capacity);
+    }
+
+    // Replays the file into memory. A record cut short by a crash is dropped and the file truncated after
+    // the last whole record, a file that isn't a session store at all is moved aside.
+    private void load()
+    {
+        final File directory = this.file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            BukkitTelnetClient.LOGGER.log(Level.WARNING, "Can''t create {0}, player sessions won''t be saved", directory);
+            return;
+        }
+
+        long validLength = 0;
+
+        if (this.file.length() > 0)
+        {
+            try (final FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ))
+            {
+                final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+                input.limit(0);
+
+                if (!fill(channel, input, HEADER_SIZE) || input.getInt() != FILE_MAGIC || input.getInt() != FILE_VERSION)
+                {
+                    throw new StreamCorruptedException("Not a session store");
+                }
+                validLength = HEADER_SIZE;
+                setEventCapacity((int) Math.min(channel.size() / EVENT_RECORD_SIZE + 1024, Integer.MAX_VALUE - 8));
+
+                while (fill(channel, input, 1))
+                {
+                    final int record = input.get(input.position());
+                    if (record == RECORD_STRING)
+                    {
+                        if (!fill(channel, input, 3))
+                        {
+                            break;
+                        }
+
+                        final int length = input.getShort(input.position() + 1) & 0xFFFF;
+                        if (!fill(channel, input, 3 + length))
+                        {
+                            break;
+                        }
+
+                        input.position(input.position() + 3);
+                        addString(new String(input.array(), input.position(), length, StandardCharsets.UTF_8));
+                        input.position(input.position() + length);
+                        validLength += 3 + length;
+                    }
+                    else if (record == RECORD_EVENT)
+                    {
+                        if (!fill(channel, input, EVENT_RECORD_SIZE))
+                        {
+                            break;
+                        }
+
+                        input.get();
+                        final int type = input.get() & 0xFF;
+                        final long time = input.getLong();
+                        final int server = input.getInt();
+                        final int uuid = input.getInt();
+                        final int name = input.getInt();
+                        final int ip = input.getInt();
+
+                        if (type >= EVENT_TYPES.length || !isString(server) || !isString(uuid) || !isString(name) || !isString(ip))
+                        {
+                            break;
+                        }
+
+                        addEvent(type, time, server, uuid, name, ip);
+                        validLength += EVENT_RECORD_SIZE;
+                    }
+                    else
+                    {
+                        break;
+                    }
+                }
+            }
+            catch (StreamCorruptedException ex)
+            {
+                final File moved = new File(directory, STORE_FILE + "." + System.currentTimeMillis() + ".bad");
+                BukkitTelnetClient.LOGGER.log(Level.WARNING, "{0} isn''t a session store, moving it to {1}", new Object[]
+                {
+                    this.file, moved
+                });
+                if (!this.file.renameTo(moved))
+                {
+                    return;
+                }
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                return;
+            }
+        }
+
+        try
+        {
+            this.output = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.output.truncate(validLength);
+            this.output.position(validLength);
+
+            if (validLength == 0)
+            {
+                this.buffer.putInt(FILE_MAGIC);
+                this.buffer.putInt(FILE_VERSION);
+                flushBuffer();
+            }
+        }
+        catch (IOException ex)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            closeOutput();
+        }
+    }
+
+    // Makes sure the buffer has at least length bytes left, false at the end of the file or if
+    // length doesn't fit the buffer at all.
+    private static boolean fill(final FileChannel channel, final ByteBuffer input, final int length) throws IOException
+    {
+        if (input.remaining() >= length)
+        {
+            return true;
+        }
+
+        if (length > input.capacity())
+        {
+            return false;
+        }
+
+        input.compact();
+        while (input.position() < length)
+        {
+            if (channel.read(input) < 0)
+            {
+                input.flip();
+                return false;
+            }
+        }
+        input.flip();
+
+        return true;
+    }
+
+    private boolean isString(final int id)
+    {
+        return id >= 0 && id < this.strings.size();
+    }
+
+    private void closeOutput()
+    {
+        try
+        {
+            if (this.output != null)
+            {
+                this.output.close();
+            }
+        }
+        catch (IOException ex)
+        {
+        }
+        this.output = null;
+        this.buffer.clear();
+    }
+
+    // Pairs each join with the next leave on the same server. A join without a leave is a session that
+    // is still going, or one the client never saw end. Newest first.
+    public static List<Session> getSessions(final List<Event> events)
+    {
+        final List<Session> sessions = new ArrayList<>();
+        final Map<String, Event> open = new HashMap<>();
+
+        for (final Event event : events)
+        {
+            if (event.getType() == EventType.JOIN)
+            {
+                final Event previous = open.put(event.getServer(), event);
+                if (previous != null)
+                {
+                    sessions.add(new Session(previous, null));
+                }
+            }
+            else
+            {
+                final Event join = open.remove(event.getServer());
+                if (join != null)
+                {
+                    sessions.add(new Session(join, event));
+                }
+            }
+        }
+
+        for (final Event join : open.values())
+        {
+            sessions.add(new Session(join, null));
+        }
+
+        sessions.sort((a, b) -> Long.compare(b.getJoinTime(), a.getJoinTime()));
+
+        return sessions;
+    }
+
+    public static final class Event
+    {
+        private final EventType type;
+        private final long time;
+        private final String server;
+        private final String uuid;
+        private final String name;
+        private final String ip;
+
+        private Event(final EventType type, final long time, final String server, final String uuid, final String name, final String ip)
+        {
+            this.type = type;
+            this.time = time;
+            this.server = server;
+            this.uuid = uuid;
+            this.name = name;
+            this.ip = ip;
+        }
+
+        public EventType getType()
+        {
+            return type;
+        }
+
+        public long getTime()
+        {
+            return time;
+        }
+
+        public String getServer()
+        {
+            return server;
+        }
+
+        public String getUuid()
+        {
+            return uuid;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getIp()
+        {
+            return ip;
+        }
+    }
+
+    public static final class Session
+    {
+        private final Event join;
+        private final Event leave;
+
+        private Session(final Event join, final Event leave)
+        {
+            this.join = join;
+            this.leave = leave;
+        }
+
+        public String getServer()
+        {
+            return join.getServer();
+        }
+
+        public String getName()
+        {
+            return join.getName();
+        }
+
+        public String getIp()
+        {
+            return join.getIp();
+        }
+
+        public long getJoinTime()
+        {
+            return join.getTime();
+        }
+
+        // 0 if the leave wasn't seen.
+        public long getLeaveTime()
+        {
+            return leave != null ? leave.getTime() : 0;
+        }
+    }
+
+    private static final class IntList
+    {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        private void add(final int value)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.Color;
+import java.awt.Component;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableCellRenderer;
+
+// Paints the rows the player table model has a highlight for, with the reason as tooltip.
+public class BTC_PlayerTableCellRenderer extends DefaultTableCellRenderer
+{
+    private final BTC_MainPanel.PlayerListTableModel model;
+
+    public BTC_PlayerTableCellRenderer(final BTC_MainPanel.PlayerListTableModel model)
+    {
+        this.model = model;
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(final JTable table, final Object value, final boolean isSelected, final boolean hasFocus, final int row, final int column)
+    {
+        final int modelRow = table.convertRowIndexToModel(row);
+
+        // A null background lets the look and feel pick the usual (alternating) row colors.
+        final Color highlight = model.getHighlight(modelRow);
+        setBackground(highlight);
+        setToolTipText(highlight != null ? model.getHighlightReason(modelRow) : null);
+
+        return super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+    }
+}
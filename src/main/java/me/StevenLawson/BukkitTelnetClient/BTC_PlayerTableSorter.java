@@ -0,0 +1,371 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.util.*;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+
+// Row sorter for the player table. Sort keys are computed once per row and cached, and the view order
+// is patched in place when rows are inserted, removed or updated instead of being sorted again.
+public class BTC_PlayerTableSorter extends RowSorter<BTC_MainPanel.PlayerListTableModel>
+{
+    private static final int MAX_SORT_KEYS = 3;
+
+    private final BTC_MainPanel.PlayerListTableModel model;
+    private List<SortKey> sortKeys = Collections.emptyList();
+
+    // Per model row: the cached keys, indexed by column.
+    private final List<Comparable<?>[]> rowKeys = new ArrayList<>();
+    private int[] viewToModel = new int[0];
+    private int[] modelToView = new int[0];
+
+    public BTC_PlayerTableSorter(final BTC_MainPanel.PlayerListTableModel model)
+    {
+        this.model = model;
+        allRowsChanged();
+    }
+
+    @Override
+    public BTC_MainPanel.PlayerListTableModel getModel()
+    {
+        return model;
+    }
+
+    @Override
+    public void toggleSortOrder(final int column)
+    {
+        final List<SortKey> keys = new ArrayList<>(sortKeys);
+
+        SortKey sortKey = new SortKey(column, SortOrder.ASCENDING);
+        for (int i = 0; i < keys.size(); i++)
+        {
+            if (keys.get(i).getColumn() == column)
+            {
+                if (i == 0)
+                {
+                    final SortOrder order = keys.get(0).getSortOrder() == SortOrder.ASCENDING ? SortOrder.DESCENDING : SortOrder.ASCENDING;
+                    sortKey = new SortKey(column, order);
+                }
+                keys.remove(i);
+                break;
+            }
+        }
+
+        keys.add(0, sortKey);
+        setSortKeys(keys.size() > MAX_SORT_KEYS ? keys.subList(0, MAX_SORT_KEYS) : keys);
+    }
+
+    @Override
+    public int convertRowIndexToModel(final int index)
+    {
+        if (index < 0 || index >= viewToModel.length)
+        {
+            throw new IndexOutOfBoundsException("Invalid index");
+        }
+
+        return viewToModel[index];
+    }
+
+    @Override
+    public int convertRowIndexToView(final int index)
+    {
+        if (index < 0 || index >= modelToView.length)
+        {
+            throw new IndexOutOfBoundsException("Invalid index");
+        }
+
+        return modelToView[index];
+    }
+
+    @Override
+    public void setSortKeys(final List<? extends SortKey> keys)
+    {
+        final List<SortKey> newKeys = keys != null ? Collections.unmodifiableList(new ArrayList<>(keys)) : Collections.emptyList();
+        if (newKeys.equals(sortKeys))
+        {
+            return;
+        }
+
+        sortKeys = newKeys;
+        fireSortOrderChanged();
+
+        final int[] previousViewToModel = viewToModel.clone();
+        sort();
+        fireRowSorterChanged(previousViewToModel);
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys()
+    {
+        return sortKeys;
+    }
+
+    @Override
+    public int getViewRowCount()
+    {
+        return viewToModel.length;
+    }
+
+    @Override
+    public int getModelRowCount()
+    {
+        return rowKeys.size();
+    }
+
+    @Override
+    public void modelStructureChanged()
+    {
+        allRowsChanged();
+    }
+
+    @Override
+    public void allRowsChanged()
+    {
+        rowKeys.clear();
+        for (int row = 0; row < model.getRowCount(); row++)
+        {
+            rowKeys.add(computeKeys(row));
+        }
+
+        sort();
+    }
+
+    @Override
+    public void rowsInserted(final int firstRow, final int endRow)
+    {
+        final int count = endRow - firstRow + 1;
+        checkRange(firstRow, endRow, rowKeys.size() + count);
+
+        for (int row = firstRow; row <= endRow; row++)
+        {
+            rowKeys.add(row, computeKeys(row));
+        }
+
+        final int[] order = new int[viewToModel.length + count];
+        int length = 0;
+        for (final int modelRow : viewToModel)
+        {
+            order[length++] = modelRow >= firstRow ? modelRow + count : modelRow;
+        }
+
+        for (int row = firstRow; row <= endRow; row++)
+        {
+            length = insertInOrder(order, length, row);
+        }
+
+        updateOrder(order);
+    }
+
+    @Override
+    public void rowsDeleted(final int firstRow, final int endRow)
+    {
+        checkRange(firstRow, endRow, rowKeys.size());
+
+        final int count = endRow - firstRow + 1;
+        rowKeys.subList(firstRow, endRow + 1).clear();
+
+        final int[] order = new int[viewToModel.length - count];
+        int length = 0;
+        for (final int modelRow : viewToModel)
+        {
+            if (modelRow > endRow)
+            {
+                order[length++] = modelRow - count;
+            }
+            else if (modelRow < firstRow)
+            {
+                order[length++] = modelRow;
+            }
+        }
+
+        updateOrder(order);
+    }
+
+    @Override
+    public void rowsUpdated(final int firstRow, final int endRow)
+    {
+        checkRange(firstRow, endRow, rowKeys.size());
+
+        int[] order = null;
+        int length = viewToModel.length;
+
+        for (int row = firstRow; row <= endRow; row++)
+        {
+            final Comparable<?>[] keys = computeKeys(row);
+            if (Arrays.equals(keys, rowKeys.get(row)))
+            {
+                continue;
+            }
+
+            if (order == null)
+            {
+                order = viewToModel.clone();
+            }
+
+            // Take the row out at its old position, then put it back where its new keys belong.
+            final int viewRow = modelToView[row];
+            final int current = indexOf(order, length, row, viewRow);
+            System.arraycopy(order, current + 1, order, current, length - current - 1);
+            length--;
+
+            rowKeys.set(row, keys);
+            length = insertInOrder(order, length, row);
+        }
+
+        if (order != null)
+        {
+            updateOrder(order);
+        }
+    }
+
+    @Override
+    public void rowsUpdated(final int firstRow, final int endRow, final int column)
+    {
+        rowsUpdated(firstRow, endRow);
+    }
+
+    private Comparable<?>[] computeKeys(final int row)
+    {
+        final Comparable<?>[] keys = new Comparable<?>[model.getColumnCount()];
+        for (int column = 0; column < keys.length; column++)
+        {
+            keys[column] = model.getSortKey(row, column);
+        }
+
+        return keys;
+    }
+
+    private void sort()
+    {
+        final Integer[] order = new Integer[rowKeys.size()];
+        for (int row = 0; row < order.length; row++)
+        {
+            order[row] = row;
+        }
+
+        if (!sortKeys.isEmpty())
+        {
+            Arrays.sort(order, this::compareRows);
+        }
+
+        final int[] _order = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            _order[i] = order[i];
+        }
+
+        setOrder(_order);
+    }
+
+    // JTable only repaints moved rows and remaps the selection when told the order changed.
+    private void updateOrder(final int[] order)
+    {
+        final int[] previousViewToModel = viewToModel;
+        setOrder(order);
+        if (!sortKeys.isEmpty() && !Arrays.equals(previousViewToModel, order))
+        {
+            fireRowSorterChanged(previousViewToModel);
+        }
+    }
+
+    private void setOrder(final int[] order)
+    {
+        viewToModel = order;
+        modelToView = new int[order.length];
+        for (int viewRow = 0; viewRow < order.length; viewRow++)
+        {
+            modelToView[order[viewRow]] = viewRow;
+        }
+    }
+
+    // Binary search for where the model row goes, model order breaks ties like a stable sort would.
+    private int insertInOrder(final int[] order, final int length, final int modelRow)
+    {
+        int low = 0;
+        int high = length;
+        while (low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if (compareRows(order[middle], modelRow) < 0)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        System.arraycopy(order, low, order, low + 1, length - low);
+        order[low] = modelRow;
+
+        return length + 1;
+    }
+
+    // Position of the model row, starting the search at its last known view row.
+    private static int indexOf(final int[] order, final int length, final int modelRow, final int hint)
+    {
+        if (hint < length && order[hint] == modelRow)
+        {
+            return hint;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            if (order[i] == modelRow)
+            {
+                return i;
+            }
+        }
+
+        throw new IllegalStateException("Row " + modelRow + " is not in the view");
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareRows(final int a, final int b)
+    {
+        final Comparable<?>[] aKeys = rowKeys.get(a);
+        final Comparable<?>[] bKeys = rowKeys.get(b);
+
+        for (final SortKey sortKey : sortKeys)
+        {
+            if (sortKey.getSortOrder() == SortOrder.UNSORTED)
+            {
+                continue;
+            }
+
+            final int result = ((Comparable<Object>) aKeys[sortKey.getColumn()]).compareTo(bKeys[sortKey.getColumn()]);
+            if (result != 0)
+            {
+                return sortKey.getSortOrder() == SortOrder.ASCENDING ? result : -result;
+            }
+        }
+
+        return Integer.compare(a, b);
+    }
+
+    private static void checkRange(final int firstRow, final int endRow, final int rowCount)
+    {
+        if (firstRow < 0 || endRow < firstRow || endRow >= rowCount)
+        {
+            throw new IndexOutOfBoundsException("Invalid range");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded lock-free queue for exactly one producer thread and one consumer thread.
+public class BTC_RingBuffer<E>
+{
+    private final Object[] buffer;
+    private final int mask;
+
+    // Written by the consumer only.
+    private final AtomicLong head = new AtomicLong();
+    // Written by the producer only.
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public BTC_RingBuffer(final int minCapacity)
+    {
+        int capacity = 1;
+        while (capacity < minCapacity)
+        {
+            capacity <<= 1;
+        }
+
+        this.buffer = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public boolean offer(final E element)
+    {
+        final long _tail = this.tail.get();
+        if (_tail - this.head.get() >= this.buffer.length)
+        {
+            this.dropped.incrementAndGet();
+            return false;
+        }
+
+        this.buffer[(int) (_tail & this.mask)] = element;
+        this.tail.lazySet(_tail + 1);
+
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E poll()
+    {
+        final long _head = this.head.get();
+        if (_head >= this.tail.get())
+        {
+            return null;
+        }
+
+        final int index = (int) (_head & this.mask);
+        final E element = (E) this.buffer[index];
+        this.buffer[index] = null;
+        this.head.lazySet(_head + 1);
+
+        return element;
+    }
+
+    public int size()
+    {
+        return (int) Math.max(0, this.tail.get() - this.head.get());
+    }
+
+    public int capacity()
+    {
+        return this.buffer.length;
+    }
+
+    public long getDroppedCount()
+    {
+        return this.dropped.get();
+    }
+}
@@ -0,0 +1,1025 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.awt.EventQueue;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import me.StevenLawson.BukkitTelnetClient.BTC_TelnetMessage.BTC_LogMessageType;
+import org.apache.commons.lang3.StringUtils;
+
+// Classified lines per server under logs/archive/<server>/, in append-only segments of deflated blocks
+// (NNNNNN.seg). Each segment has a sparse index (NNNNNN.idx) with one record per block: where it is,
+// the time range it covers, the message types in it and the players it mentions. A query only inflates
+// the blocks the index can't rule out. Written by the session log thread. A search is run from the
+// archive's thread, which hands runs of candidate blocks to a fork/join pool and streams back the results.
+public class BTC_SessionArchive
+{
+    private static final String LOG_DIRECTORY = "logs";
+    private static final String ARCHIVE_DIRECTORY = "archive";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_MAGIC = 0x46544341;
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_STRING = 1;
+    private static final int RECORD_BLOCK = 2;
+    private static final int BLOCK_RECORD_SIZE = 1 + 8 + 4 + 4 + 8 + 8 + 4 + 8 + 2;
+    private static final int BLOCK_MAX_LINES = 1024;
+    private static final int BLOCK_MAX_BYTES = 64 * 1024;
+    private static final long SEGMENT_MAX_BYTES = 32L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int NO_PLAYER = -1;
+    private static final int BLOCKS_PER_SCAN = 8;
+
+    // Type id of lines sent by the client, received lines use BTC_TelnetMessage.getTypeId().
+    public static final int TYPE_SENT = 0;
+
+    private static final ExecutorService SEARCH_EXECUTOR = Executors.newSingleThreadExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "BTC-SessionArchive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ForkJoinPool SEARCH_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool ->
+    {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("BTC-ArchiveScan-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+
+    // Indexes already read, refreshed from where they were left before each search.
+    private static final Map<File, Segment> SEGMENTS = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private FileChannel segmentOutput = null;
+    private FileChannel indexOutput = null;
+    private long segmentSize = 0;
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // Player names are stored once per segment and referred to by id after that.
+    private final Map<String, Integer> playerIds = new HashMap<>();
+
+    // The block being filled.
+    private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(BLOCK_MAX_BYTES + 1024);
+    private final DataOutputStream blockOutput = new DataOutputStream(this.blockBytes);
+    private final BitSet blockPlayers = new BitSet();
+    private long blockFirstTime = 0;
+    private long blockLastTime = 0;
+    private int blockLines = 0;
+    private long blockTypes = 0;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] deflated = new byte[BLOCK_MAX_BYTES];
+
+    public BTC_SessionArchive(final String server)
+    {
+        this.directory = getDirectory(server);
+    }
+
+    private static File getDirectory(final String server)
+    {
+        final StringBuilder name = new StringBuilder(server.length());
+        for (int i = 0; i < server.length(); i++)
+        {
+            final char c = server.charAt(i);
+            name.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' ? c : '_');
+        }
+
+        return new File(new File(LOG_DIRECTORY, ARCHIVE_DIRECTORY), name.toString());
+    }
+
+    // Servers with anything archived, by directory name. The name works as a server for search().
+    public static List<String> getServers()
+    {
+        final File[] directories = new File(LOG_DIRECTORY, ARCHIVE_DIRECTORY).listFiles(File::isDirectory);
+        if (directories == null)
+        {
+            return Collections.emptyList();
+        }
+
+        final List<String> servers = new ArrayList<>();
+        for (final File directory : directories)
+        {
+            servers.add(directory.getName());
+        }
+        Collections.sort(servers);
+        return servers;
+    }
+
+    public static String getDirectoryName(final String server)
+    {
+        return getDirectory(server).getName();
+    }
+
+    // Types past 62 share the last bit, the lines themselves are checked anyway.
+    private static long getTypeBit(final int typeId)
+    {
+        return 1L << Math.min(typeId, 63);
+    }
+
+    public void append(final long time, final int typeId, final String player, final String text) throws IOException
+    {
+        if (this.segmentOutput == null)
+        {
+            openSegment();
+        }
+
+        final int playerId = player != null ? getPlayerId(player) : NO_PLAYER;
+
+        if (this.blockLines == 0)
+        {
+            this.blockFirstTime = time;
+        }
+        this.blockLastTime = Math.max(this.blockLastTime, time);
+        this.blockLines++;
+        this.blockTypes |= getTypeBit(typeId);
+        if (playerId != NO_PLAYER)
+        {
+            this.blockPlayers.set(playerId);
+        }
+
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        this.blockOutput.writeLong(time);
+        this.blockOutput.writeByte(typeId);
+        this.blockOutput.writeInt(playerId);
+        this.blockOutput.writeInt(bytes.length);
+        this.blockOutput.write(bytes);
+
+        if (this.blockLines >= BLOCK_MAX_LINES || this.blockBytes.size() >= BLOCK_MAX_BYTES)
+        {
+            flush();
+        }
+    }
+
+    // Seals the block being filled, so searches can see its lines.
+    public void flush() throws IOException
+    {
+        if (this.blockLines == 0)
+        {
+            return;
+        }
+
+        this.deflater.reset();
+        this.deflater.setInput(this.blockBytes.toByteArray());
+        this.deflater.finish();
+        int length = 0;
+        while (!this.deflater.finished())
+        {
+            if (length == this.deflated.length)
+            {
+                this.deflated = Arrays.copyOf(this.deflated, this.deflated.length * 2);
+            }
+            length += this.deflater.deflate(this.deflated, length, this.deflated.length - length);
+        }
+
+        // The block is on disk before the index points at it.
+        final long offset = this.segmentSize;
+        final ByteBuffer block = ByteBuffer.wrap(this.deflated, 0, length);
+        while (block.hasRemaining())
+        {
+            this.segmentOutput.write(block);
+        }
+        this.segmentSize += length;
+
+        // At most BLOCK_MAX_LINES players, so the record always fits the buffer.
+        reserve(BLOCK_RECORD_SIZE + this.blockPlayers.cardinality() * 4);
+        this.indexBuffer.put((byte) RECORD_BLOCK);
+        this.indexBuffer.putLong(offset);
+        this.indexBuffer.putInt(length);
+        this.indexBuffer.putInt(this.blockBytes.size());
+        this.indexBuffer.putLong(this.blockFirstTime);
+        this.indexBuffer.putLong(this.blockLastTime);
+        this.indexBuffer.putInt(this.blockLines);
+        this.indexBuffer.putLong(this.blockTypes);
+        this.indexBuffer.putShort((short) this.blockPlayers.cardinality());
+        for (int id = this.blockPlayers.nextSetBit(0); id >= 0; id = this.blockPlayers.nextSetBit(id + 1))
+        {
+            this.indexBuffer.putInt(id);
+        }
+        flushIndex();
+
+        this.blockBytes.reset();
+        this.blockPlayers.clear();
+        this.blockLines = 0;
+        this.blockTypes = 0;
+        this.blockLastTime = 0;
+
+        if (this.segmentSize >= SEGMENT_MAX_BYTES)
+        {
+            closeSegment();
+        }
+    }
+
+    public void close()
+    {
+        try
+        {
+            flush();
+        }
+        catch (IOException ex)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+        }
+        closeSegment();
+    }
+
+    private int getPlayerId(final String player) throws IOException
+    {
+        final Integer id = this.playerIds.get(player);
+        if (id != null)
+        {
+            return id;
+        }
+
+        final byte[] bytes = player.getBytes(StandardCharsets.UTF_8);
+        final int length = Math.min(bytes.length, 0xFFFF);
+        reserve(1 + 2 + length);
+        this.indexBuffer.put((byte) RECORD_STRING);
+        this.indexBuffer.putShort((short) length);
+        this.indexBuffer.put(bytes, 0, length);
+
+        final int _id = this.playerIds.size();
+        this.playerIds.put(player, _id);
+        return _id;
+    }
+
+    // Always a new segment, one left behind by a crash may end in a torn index record.
+    private void openSegment() throws IOException
+    {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs())
+        {
+            throw new IOException("Couldn't create " + this.directory);
+        }
+
+        int number = 0;
+        final String[] names = this.directory.list();
+        if (names != null)
+        {
+            for (final String name : names)
+            {
+                if (name.endsWith(INDEX_SUFFIX))
+                {
+                    try
+                    {
+                        number = Math.max(number, Integer.parseInt(name.substring(0, name.length() - INDEX_SUFFIX.length())));
+                    }
+                    catch (NumberFormatException ex)
+                    {
+                    }
+                }
+            }
+        }
+
+        final String name = String.format("%06d", number + 1);
+        this.segmentOutput = FileChannel.open(new File(this.directory, name + SEGMENT_SUFFIX).toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.indexOutput = FileChannel.open(new File(this.directory, name + INDEX_SUFFIX).toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.segmentSize = 0;
+        this.playerIds.clear();
+
+        this.indexBuffer.clear();
+        this.indexBuffer.putInt(INDEX_MAGIC);
+        this.indexBuffer.putInt(INDEX_VERSION);
+        flushIndex();
+    }
+
+    private void closeSegment()
+    {
+        try
+        {
+            if (this.segmentOutput != null)
+            {
+                this.segmentOutput.close();
+            }
+            if (this.indexOutput != null)
+            {
+                this.indexOutput.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+        }
+
+        this.segmentOutput = null;
+        this.indexOutput = null;
+        this.indexBuffer.clear();
+    }
+
+    private void reserve(final int length) throws IOException
+    {
+        if (this.indexBuffer.remaining() < length)
+        {
+            flushIndex();
+        }
+    }
+
+    private void flushIndex() throws IOException
+    {
+        this.indexBuffer.flip();
+        while (this.indexBuffer.hasRemaining())
+        {
+            this.indexOutput.write(this.indexBuffer);
+        }
+        this.indexBuffer.clear();
+    }
+
+    // Searches the server's archive off the calling thread, the callback runs on the EDT.
+    public static void search(final String server, final Query query, final Consumer<List<Entry>> callback)
+    {
+        SEARCH_EXECUTOR.execute(() ->
+        {
+            List<Entry> entries;
+            try
+            {
+                entries = search(server, query);
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                entries = Collections.emptyList();
+            }
+
+            final List<Entry> _entries = entries;
+            EventQueue.invokeLater(() -> callback.accept(_entries));
+        });
+    }
+
+    // Streams matches to the listener on the EDT, a batch at a time in the order they were archived,
+    // while later blocks are still being scanned. Nothing reaches the listener once the search is cancelled.
+    public static Search search(final String server, final Query query, final SearchListener listener)
+    {
+        final Search search = new Search();
+        SEARCH_EXECUTOR.execute(() ->
+        {
+            int count = 0;
+            try
+            {
+                count = scan(server, query, search, entries -> EventQueue.invokeLater(() ->
+                {
+                    if (!search.isCancelled())
+                    {
+                        listener.onEntries(entries);
+                    }
+                }));
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            }
+
+            final int _count = count;
+            EventQueue.invokeLater(() ->
+            {
+                if (!search.isCancelled())
+                {
+                    listener.onFinished(_count);
+                }
+            });
+        });
+        return search;
+    }
+
+    // Lines matching the query in the order they were archived, at most query.getLimit() of the earliest ones.
+    public static List<Entry> search(final String server, final Query query) throws IOException
+    {
+        final List<Entry> entries = new ArrayList<>();
+        scan(server, query, new Search(), entries::addAll);
+        return entries;
+    }
+
+    // Hands the candidate blocks of every segment to SEARCH_POOL in runs of BLOCKS_PER_SCAN, then
+    // collects the runs in order so the consumer sees matches as soon as everything before them is done.
+    private static int scan(final String server, final Query query, final Search search, final Consumer<List<Entry>> consumer) throws IOException
+    {
+        final File[] indexFiles = getDirectory(server).listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+        if (indexFiles == null)
+        {
+            return 0;
+        }
+        Arrays.sort(indexFiles);
+
+        final List<FileChannel> channels = new ArrayList<>();
+        final List<BlockScan> scans = new ArrayList<>();
+        try
+        {
+            for (final File indexFile : indexFiles)
+            {
+                final Segment segment = SEGMENTS.computeIfAbsent(indexFile, Segment::new);
+                segment.submitScans(query, channels, scans);
+            }
+
+            int count = 0;
+            for (final BlockScan scan : scans)
+            {
+                final List<Entry> entries = scan.join();
+                if (search.isCancelled())
+                {
+                    break;
+                }
+                if (entries.isEmpty())
+                {
+                    continue;
+                }
+
+                final int room = query.getLimit() - count;
+                final List<Entry> batch = entries.size() > room ? new ArrayList<>(entries.subList(0, room)) : entries;
+                consumer.accept(batch);
+                count += batch.size();
+                if (count >= query.getLimit())
+                {
+                    break;
+                }
+            }
+            return count;
+        }
+        catch (UncheckedIOException ex)
+        {
+            throw ex.getCause();
+        }
+        finally
+        {
+            // Runs that haven't started are dropped, the channels stay open until the running ones are done.
+            for (final BlockScan scan : scans)
+            {
+                scan.cancel(false);
+            }
+            for (final BlockScan scan : scans)
+            {
+                scan.quietlyJoin();
+            }
+            for (final FileChannel channel : channels)
+            {
+                channel.close();
+            }
+        }
+    }
+
+    public interface SearchListener
+    {
+        void onEntries(List<Entry> entries);
+
+        // Called once the archive has been scanned or the limit was reached.
+        void onFinished(int count);
+    }
+
+    public static final class Search
+    {
+        private volatile boolean cancelled = false;
+
+        public void cancel()
+        {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled()
+        {
+            return this.cancelled;
+        }
+    }
+
+    // What a search looks for, every condition is optional except the time range.
+    public static final class Query
+    {
+        private final long from;
+        private final long to;
+        private final String player;
+        private final BitSet types;
+        private final String text;
+        private final Pattern pattern;
+        private final byte[] asciiLiteral;
+        private final int limit;
+
+        // Lines from from (inclusive) to to (exclusive). A null player, types or text means any. Text is
+        // matched anywhere in the line, as a regular expression if regex is set and ignoring case otherwise.
+        public Query(final long from, final long to, final String player, final BitSet types, final String text, final boolean regex, final int limit)
+        {
+            this.from = from;
+            this.to = to;
+            this.player = player;
+            this.types = types;
+            this.text = text == null || text.isEmpty() ? null : text;
+            this.pattern = this.text != null && regex ? Pattern.compile(this.text) : null;
+            this.asciiLiteral = this.text != null && !regex && StringUtils.isAsciiPrintable(this.text) ? this.text.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII) : null;
+            this.limit = limit;
+        }
+
+        public long getFrom()
+        {
+            return from;
+        }
+
+        public long getTo()
+        {
+            return to;
+        }
+
+        public String getPlayer()
+        {
+            return player;
+        }
+
+        public BitSet getTypes()
+        {
+            return types;
+        }
+
+        public String getText()
+        {
+            return text;
+        }
+
+        public boolean isRegex()
+        {
+            return pattern != null;
+        }
+
+        public int getLimit()
+        {
+            return limit;
+        }
+
+        private long getTypeMask()
+        {
+            if (this.types == null)
+            {
+                return -1L;
+            }
+
+            long mask = 0;
+            for (int type = this.types.nextSetBit(0); type >= 0; type = this.types.nextSetBit(type + 1))
+            {
+                mask |= getTypeBit(type);
+            }
+            return mask;
+        }
+
+        // Null if there's no text to match or it's matched on the raw bytes. A Matcher isn't thread safe,
+        // so each scan gets its own.
+        private Predicate<String> newTextFilter()
+        {
+            if (this.text == null || this.asciiLiteral != null)
+            {
+                return null;
+            }
+            if (this.pattern != null)
+            {
+                final Matcher matcher = this.pattern.matcher("");
+                return line -> matcher.reset(line).find();
+            }
+            return line -> StringUtils.containsIgnoreCase(line, this.text);
+        }
+    }
+
+    public static final class Entry
+    {
+        private final long time;
+        private final int typeId;
+        private final String player;
+        private final String text;
+
+        private Entry(final long time, final int typeId, final String player, final String text)
+        {
+            this.time = time;
+            this.typeId = typeId;
+            this.player = player;
+            this.text = text;
+        }
+
+        public long getTime()
+        {
+            return time;
+        }
+
+        public int getTypeId()
+        {
+            return typeId;
+        }
+
+        // Null for sent and untyped lines.
+        public BTC_LogMessageType getType()
+        {
+            final BTC_LogMessageType[] types = BTC_LogMessageType.values();
+            return this.typeId >= 1 && this.typeId <= types.length ? types[this.typeId - 1] : null;
+        }
+
+        public boolean isSent()
+        {
+            return typeId == TYPE_SENT;
+        }
+
+        // Null if the line isn't from a player.
+        public String getPlayer()
+        {
+            return player;
+        }
+
+        public String getText()
+        {
+            return text;
+        }
+    }
+
+    // The index of one segment as read so far. The writer only ever appends, so a refresh carries on
+    // from the end of the last whole record and a torn one is simply read again next time.
+    private static final class Segment
+    {
+        private final File indexFile;
+        private final File segmentFile;
+        private long indexLength = 0;
+        private boolean valid = true;
+
+        private final List<String> players = new ArrayList<>();
+        private final Map<String, IntList> blocksByPlayer = new HashMap<>();
+
+        private long[] offsets = new long[64];
+        private int[] lengths = new int[64];
+        private int[] rawLengths = new int[64];
+        private long[] firstTimes = new long[64];
+        private long[] lastTimes = new long[64];
+        private long[] typeMasks = new long[64];
+        private int blockCount = 0;
+
+        private Segment(final File indexFile)
+        {
+            this.indexFile = indexFile;
+            final String name = indexFile.getName();
+            this.segmentFile = new File(indexFile.getParentFile(), name.substring(0, name.length() - INDEX_SUFFIX.length()) + SEGMENT_SUFFIX);
+        }
+
+        // Submits the blocks the index can't rule out, opening the segment if there are any.
+        private synchronized void submitScans(final Query query, final List<FileChannel> channels, final List<BlockScan> scans) throws IOException
+        {
+            refresh();
+
+            final long typeMask = query.getTypeMask();
+            final String player = query.getPlayer();
+            final IntList candidates = player != null ? this.blocksByPlayer.get(player.toLowerCase(Locale.ROOT)) : null;
+            if (player != null && candidates == null)
+            {
+                return;
+            }
+
+            final int count = candidates != null ? candidates.size : this.blockCount;
+            final int[] blocks = new int[count];
+            int selected = 0;
+            for (int i = 0; i < count; i++)
+            {
+                final int block = candidates != null ? candidates.values[i] : i;
+                if (this.lastTimes[block] >= query.getFrom() && this.firstTimes[block] < query.getTo() && (this.typeMasks[block] & typeMask) != 0)
+                {
+                    blocks[selected++] = block;
+                }
+            }
+            if (selected == 0)
+            {
+                return;
+            }
+
+            final FileChannel channel = FileChannel.open(this.segmentFile.toPath(), StandardOpenOption.READ);
+            channels.add(channel);
+
+            final String[] _players = this.players.toArray(new String[0]);
+            for (int start = 0; start < selected; start += BLOCKS_PER_SCAN)
+            {
+                final int end = Math.min(selected, start + BLOCKS_PER_SCAN);
+                final long[] _offsets = new long[end - start];
+                final int[] _lengths = new int[end - start];
+                final int[] _rawLengths = new int[end - start];
+                for (int i = start; i < end; i++)
+                {
+                    _offsets[i - start] = this.offsets[blocks[i]];
+                    _lengths[i - start] = this.lengths[blocks[i]];
+                    _rawLengths[i - start] = this.rawLengths[blocks[i]];
+                }
+
+                final BlockScan scan = new BlockScan(this.segmentFile, channel, _players, _offsets, _lengths, _rawLengths, query);
+                scans.add(scan);
+                SEARCH_POOL.execute(scan);
+            }
+        }
+
+        private void refresh() throws IOException
+        {
+            if (!this.valid || this.indexFile.length() == this.indexLength)
+            {
+                return;
+            }
+
+            try (final FileChannel channel = FileChannel.open(this.indexFile.toPath(), StandardOpenOption.READ))
+            {
+                channel.position(this.indexLength);
+                final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+                input.limit(0);
+
+                if (this.indexLength == 0)
+                {
+                    if (!fill(channel, input, HEADER_SIZE))
+                    {
+                        return;
+                    }
+                    if (input.getInt() != INDEX_MAGIC || input.getInt() != INDEX_VERSION)
+                    {
+                        BukkitTelnetClient.LOGGER.log(Level.WARNING, "{0} isn''t a session archive index, skipping it", this.indexFile);
+                        this.valid = false;
+                        return;
+                    }
+                    this.indexLength = HEADER_SIZE;
+                }
+
+                while (fill(channel, input, 1))
+                {
+                    final int record = input.get(input.position());
+                    if (record == RECORD_STRING)
+                    {
+                        if (!fill(channel, input, 3))
+                        {
+                            break;
+                        }
+
+                        final int length = input.getShort(input.position() + 1) & 0xFFFF;
+                        if (!fill(channel, input, 3 + length))
+                        {
+                            break;
+                        }
+
+                        input.position(input.position() + 3);
+                        this.players.add(new String(input.array(), input.position(), length, StandardCharsets.UTF_8));
+                        input.position(input.position() + length);
+                        this.indexLength += 3 + length;
+                    }
+                    else if (record == RECORD_BLOCK)
+                    {
+                        if (!fill(channel, input, BLOCK_RECORD_SIZE))
+                        {
+                            break;
+                        }
+
+                        final int playerCount = input.getShort(input.position() + BLOCK_RECORD_SIZE - 2) & 0xFFFF;
+                        if (!fill(channel, input, BLOCK_RECORD_SIZE + playerCount * 4))
+                        {
+                            break;
+                        }
+
+                        input.get();
+                        addBlock(input.getLong(), input.getInt(), input.getInt(), input.getLong(), input.getLong(), input.getInt(), input.getLong());
+                        input.getShort();
+                        for (int i = 0; i < playerCount; i++)
+                        {
+                            final int player = input.getInt();
+                            if (player >= 0 && player < this.players.size())
+                            {
+                                this.blocksByPlayer.computeIfAbsent(this.players.get(player).toLowerCase(Locale.ROOT), key -> new IntList()).addOnce(this.blockCount - 1);
+                            }
+                        }
+                        this.indexLength += BLOCK_RECORD_SIZE + playerCount * 4;
+                    }
+                    else
+                    {
+                        BukkitTelnetClient.LOGGER.log(Level.WARNING, "Unknown record in {0}, ignoring the rest of it", this.indexFile);
+                        this.valid = false;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void addBlock(final long offset, final int length, final int rawLength, final long firstTime, final long lastTime, final int lines, final long typeMask)
+        {
+            if (this.blockCount == this.offsets.length)
+            {
+                final int capacity = this.blockCount * 2;
+                this.offsets = Arrays.copyOf(this.offsets, capacity);
+                this.lengths = Arrays.copyOf(this.lengths, capacity);
+                this.rawLengths = Arrays.copyOf(this.rawLengths, capacity);
+                this.firstTimes = Arrays.copyOf(this.firstTimes, capacity);
+                this.lastTimes = Arrays.copyOf(this.lastTimes, capacity);
+                this.typeMasks = Arrays.copyOf(this.typeMasks, capacity);
+            }
+
+            final int block = this.blockCount++;
+            this.offsets[block] = offset;
+            this.lengths[block] = length;
+            this.rawLengths[block] = rawLength;
+            this.firstTimes[block] = firstTime;
+            this.lastTimes[block] = lastTime;
+            this.typeMasks[block] = typeMask;
+        }
+    }
+
+    // A run of blocks from one segment, with what it needs copied out of the index so it never touches
+    // the Segment while another search refreshes it. The channel is shared, reads are positional.
+    private static final class BlockScan extends RecursiveTask<List<Entry>>
+    {
+        private final File segmentFile;
+        private final FileChannel channel;
+        private final String[] players;
+        private final long[] offsets;
+        private final int[] lengths;
+        private final int[] rawLengths;
+        private final Query query;
+
+        private BlockScan(final File segmentFile, final FileChannel channel, final String[] players, final long[] offsets, final int[] lengths, final int[] rawLengths, final Query query)
+        {
+            this.segmentFile = segmentFile;
+            this.channel = channel;
+            this.players = players;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.rawLengths = rawLengths;
+            this.query = query;
+        }
+
+        @Override
+        protected List<Entry> compute()
+        {
+            final List<Entry> entries = new ArrayList<>();
+            final Predicate<String> textFilter = this.query.newTextFilter();
+            final Inflater inflater = new Inflater();
+            try
+            {
+                for (int i = 0; i < this.offsets.length && entries.size() < this.query.getLimit(); i++)
+                {
+                    scanBlock(inflater, i, textFilter, entries);
+                }
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException(ex);
+            }
+            finally
+            {
+                inflater.end();
+            }
+            return entries;
+        }
+
+        private void scanBlock(final Inflater inflater, final int block, final Predicate<String> textFilter, final List<Entry> entries) throws IOException
+        {
+            final ByteBuffer compressed = ByteBuffer.allocate(this.lengths[block]);
+            while (compressed.hasRemaining())
+            {
+                if (this.channel.read(compressed, this.offsets[block] + compressed.position()) < 0)
+                {
+                    throw new EOFException("Block past the end of " + this.segmentFile);
+                }
+            }
+
+            final byte[] raw = new byte[this.rawLengths[block]];
+            inflater.reset();
+            inflater.setInput(compressed.array());
+            try
+            {
+                int length = 0;
+                while (length < raw.length && !inflater.finished())
+                {
+                    length += inflater.inflate(raw, length, raw.length - length);
+                }
+            }
+            catch (DataFormatException ex)
+            {
+                throw new StreamCorruptedException("Bad block in " + this.segmentFile);
+            }
+
+            final ByteBuffer input = ByteBuffer.wrap(raw);
+            final String player = this.query.getPlayer();
+            final BitSet types = this.query.getTypes();
+            final byte[] literal = this.query.asciiLiteral;
+            while (input.remaining() >= 8 + 1 + 4 + 4)
+            {
+                final long time = input.getLong();
+                final int typeId = input.get() & 0xFF;
+                final int playerId = input.getInt();
+                final int length = input.getInt();
+                if (length < 0 || length > input.remaining())
+                {
+                    break;
+                }
+
+                final String linePlayer = playerId >= 0 && playerId < this.players.length ? this.players[playerId] : null;
+                if (time >= this.query.getFrom() && time < this.query.getTo()
+                        && (types == null || types.get(typeId))
+                        && (player == null || player.equalsIgnoreCase(linePlayer))
+                        && (literal == null || containsIgnoreCase(raw, input.position(), length, literal)))
+                {
+                    final String text = new String(raw, input.position(), length, StandardCharsets.UTF_8);
+                    if (textFilter == null || textFilter.test(text))
+                    {
+                        entries.add(new Entry(time, typeId, linePlayer, text));
+                    }
+                }
+                input.position(input.position() + length);
+            }
+        }
+    }
+
+    // ASCII case folding is enough for an ASCII literal, bytes of multi-byte UTF-8 characters never match it.
+    private static boolean containsIgnoreCase(final byte[] bytes, final int offset, final int length, final byte[] literal)
+    {
+        if (literal.length == 0)
+        {
+            return true;
+        }
+
+        final int last = offset + length - literal.length;
+        outer:
+        for (int i = offset; i <= last; i++)
+        {
+            if (toLowerCase(bytes[i]) != literal[0])
+            {
+                continue;
+            }
+            for (int j = 1; j < literal.length; j++)
+            {
+                if (toLowerCase(bytes[i + j]) != literal[j])
+                {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static byte toLowerCase(final byte b)
+    {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    // Makes sure the buffer has at least length bytes left, false at the end of the file.
+    private static boolean fill(final FileChannel channel, final ByteBuffer input, final int length) throws IOException
+    {
+        if (input.remaining() >= length)
+        {
+            return true;
+        }
+
+        input.compact();
+        while (input.position() < length)
+        {
+            if (channel.read(input) < 0)
+            {
+                input.flip();
+                return false;
+            }
+        }
+        input.flip();
+
+        return true;
+    }
+
+    private static final class IntList
+    {
+        private int[] values = new int[4];
+        private int size = 0;
+
+        // Blocks are added in order, a player named twice in a block (by case) is listed once.
+        private void addOnce(final int value)
+        {
+            if (size > 0 && values[size - 1] == value)
+            {
+                return;
+            }
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+// Scrollback spills, and a log of every line sent to and received from each server under
+// logs/sessions/<server>/<day>.<part>.log. Session log lines are queued without blocking and
+// written by their own thread, finished parts are compressed to .log.gz on the executor.
+// Sent and classified received lines also go to the server's BTC_SessionArchive.
+public class BTC_SessionLogWriter
+{
+    private static final String LOG_DIRECTORY = "logs";
+    private static final String SESSION_DIRECTORY = "sessions";
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int BATCH_SIZE = 4096;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long IDLE_FLUSH_MS = 1000;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "BTC-SessionLogWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final BlockingQueue<SessionLine> sessionQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final SessionLog sessionLog = new SessionLog();
+
+    public BTC_SessionLogWriter()
+    {
+        final Thread thread = new Thread(this.sessionLog, "BTC-SessionLog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Writes lines evicted from the console scrollback, off the calling thread.
+    public void spill(final BTC_ConsoleLineStore.Chunk chunk)
+    {
+        this.executor.execute(() ->
+        {
+            final File directory = new File(LOG_DIRECTORY);
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                return;
+            }
+
+            final File file = new File(directory, "scrollback-" + new SimpleDateFormat("yyyy-MM-dd").format(new Date()) + ".log");
+
+            try (final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024))
+            {
+                chunk.writeTo(writer);
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            }
+        });
+    }
+
+    // Called from the connection thread and the EDT, never waits: if the disk can't keep up the line is
+    // dropped and counted, and the log notes how many were lost.
+    public void record(final String server, final boolean sent, final String line)
+    {
+        record(server, sent, line, null);
+    }
+
+    // A received line as classified for the console, archived as well as logged.
+    public void record(final String server, final BTC_TelnetMessage message)
+    {
+        record(server, false, message.getMessage(), message);
+    }
+
+    private void record(final String server, final boolean sent, final String line, final BTC_TelnetMessage message)
+    {
+        if (!BukkitTelnetClient.config.getSettings().isSessionLog())
+        {
+            return;
+        }
+
+        if (!this.sessionQueue.offer(new SessionLine(System.currentTimeMillis(), server, sent, line, message)))
+        {
+            this.droppedCount.incrementAndGet();
+        }
+    }
+
+    private static String getDirectoryName(final String server)
+    {
+        final StringBuilder name = new StringBuilder(server.length());
+        for (int i = 0; i < server.length(); i++)
+        {
+            final char c = server.charAt(i);
+            name.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' ? c : '_');
+        }
+        return name.toString();
+    }
+
+    // Compresses next to the original and only then deletes it, a crash leaves at worst both files.
+    private void compress(final File file)
+    {
+        this.executor.execute(() ->
+        {
+            final File compressed = new File(file.getPath() + ".gz");
+            final File temp = new File(file.getPath() + ".gz.tmp");
+
+            try (final InputStream in = new FileInputStream(file);
+                    final OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024))
+            {
+                final byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) > 0)
+                {
+                    out.write(buffer, 0, read);
+                }
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                temp.delete();
+                return;
+            }
+
+            if (!temp.renameTo(compressed) || !file.delete())
+            {
+                BukkitTelnetClient.LOGGER.log(Level.WARNING, "Couldn't replace {0} with its compressed copy", file);
+            }
+        });
+    }
+
+    private static final class SessionLine
+    {
+        private final long time;
+        private final String server;
+        private final boolean sent;
+        private final String line;
+        private final BTC_TelnetMessage message;
+
+        private SessionLine(final long time, final String server, final boolean sent, final String line, final BTC_TelnetMessage message)
+        {
+            this.time = time;
+            this.server = server;
+            this.sent = sent;
+            this.line = line;
+            this.message = message;
+        }
+    }
+
+    // Owns the open part, only ever touched by the session log thread.
+    private final class SessionLog implements Runnable
+    {
+        private final List<SessionLine> batch = new ArrayList<>(BATCH_SIZE);
+        private final char[] timestamp = "[00:00:00.000] ".toCharArray();
+
+        private String server = null;
+        private File file = null;
+        private CountingOutputStream counter = null;
+        private Writer writer = null;
+        private long dayStart = 0;
+        private long dayEnd = 0;
+        private String day = null;
+        private long reportedDropCount = 0;
+
+        private BTC_SessionArchive archive = null;
+        private String archiveServer = null;
+
+        @Override
+        public void run()
+        {
+            compressLeftovers();
+
+            while (true)
+            {
+                try
+                {
+                    final SessionLine first = BTC_SessionLogWriter.this.sessionQueue.poll(IDLE_FLUSH_MS, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                    {
+                        // Buffered lines reach the disk and the archive within a second of the traffic going quiet.
+                        flush();
+                        flushArchive();
+                        continue;
+                    }
+
+                    this.batch.add(first);
+                    BTC_SessionLogWriter.this.sessionQueue.drainTo(this.batch, BATCH_SIZE - 1);
+
+                    for (final SessionLine line : this.batch)
+                    {
+                        archive(line);
+                        write(line);
+                    }
+                    this.batch.clear();
+                }
+                catch (InterruptedException ex)
+                {
+                    close();
+                    closeArchive();
+                    return;
+                }
+                catch (IOException ex)
+                {
+                    BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                    this.batch.clear();
+                    close();
+                }
+            }
+        }
+
+        private void write(final SessionLine line) throws IOException
+        {
+            if (this.writer == null
+                    || !line.server.equals(this.server)
+                    || line.time >= this.dayEnd
+                    || line.time < this.dayStart
+                    || this.counter.getCount() >= BukkitTelnetClient.config.getSettings().getSessionLogMaxBytes())
+            {
+                open(line.server, line.time);
+            }
+
+            final long dropCount = BTC_SessionLogWriter.this.droppedCount.get();
+            if (dropCount != this.reportedDropCount)
+            {
+                this.writer.write("[" + (dropCount - this.reportedDropCount) + " lines dropped, disk can't keep up]");
+                this.writer.write(System.lineSeparator());
+                this.reportedDropCount = dropCount;
+            }
+
+            formatTimestamp(line.time - this.dayStart);
+            this.writer.write(this.timestamp);
+            this.writer.write(line.sent ? "> " : "< ");
+            this.writer.write(line.line);
+            this.writer.write(System.lineSeparator());
+        }
+
+        private void archive(final SessionLine line)
+        {
+            if (!line.sent && line.message == null)
+            {
+                return;
+            }
+
+            if (!line.server.equals(this.archiveServer))
+            {
+                closeArchive();
+                this.archive = new BTC_SessionArchive(line.server);
+                this.archiveServer = line.server;
+            }
+            else if (this.archive == null)
+            {
+                // Failed for this server, it's tried again after the next server change.
+                return;
+            }
+
+            try
+            {
+                if (line.sent)
+                {
+                    this.archive.append(line.time, BTC_SessionArchive.TYPE_SENT, null, line.line);
+                }
+                else
+                {
+                    this.archive.append(line.time, line.message.getTypeId(), line.message.getPlayerName(), line.line);
+                }
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                this.archive.close();
+                this.archive = null;
+            }
+        }
+
+        private void flushArchive()
+        {
+            if (this.archive == null)
+            {
+                return;
+            }
+
+            try
+            {
+                this.archive.flush();
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                this.archive.close();
+                this.archive = null;
+            }
+        }
+
+        private void closeArchive()
+        {
+            if (this.archive != null)
+            {
+                this.archive.close();
+            }
+            this.archive = null;
+            this.archiveServer = null;
+        }
+
+        // Fills in "[HH:mm:ss.SSS] " without a date formatter per line.
+        private void formatTimestamp(final long millis)
+        {
+            putDigits(1, (int) (millis / 3600000), 2);
+            putDigits(4, (int) (millis / 60000 % 60), 2);
+            putDigits(7, (int) (millis / 1000 % 60), 2);
+            putDigits(10, (int) (millis % 1000), 3);
+        }
+
+        private void putDigits(final int offset, int value, final int digits)
+        {
+            for (int i = offset + digits - 1; i >= offset; i--)
+            {
+                this.timestamp[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+        }
+
+        // Closes and compresses the current part, then starts the next one for this server and day.
+        private void open(final String server, final long time) throws IOException
+        {
+            close();
+
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            this.dayStart = calendar.getTimeInMillis();
+            this.day = new SimpleDateFormat("yyyy-MM-dd").format(calendar.getTime());
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            this.dayEnd = calendar.getTimeInMillis();
+
+            final File directory = new File(new File(LOG_DIRECTORY, SESSION_DIRECTORY), getDirectoryName(server));
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                throw new IOException("Couldn't create " + directory);
+            }
+
+            // Parts already on disk, compressed or not, are never appended to.
+            int part = 1;
+            File _file;
+            while ((_file = new File(directory, this.day + "." + part + ".log")).exists() || new File(_file.getPath() + ".gz").exists())
+            {
+                part++;
+            }
+
+            this.server = server;
+            this.file = _file;
+            this.counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(_file), BUFFER_SIZE));
+            this.writer = new OutputStreamWriter(this.counter, StandardCharsets.UTF_8);
+        }
+
+        private void flush()
+        {
+            if (this.writer == null)
+            {
+                return;
+            }
+
+            try
+            {
+                this.writer.flush();
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                close();
+            }
+        }
+
+        private void close()
+        {
+            if (this.writer == null)
+            {
+                return;
+            }
+
+            try
+            {
+                this.writer.close();
+                compress(this.file);
+            }
+            catch (IOException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+            }
+
+            this.writer = null;
+            this.counter = null;
+            this.file = null;
+            this.server = null;
+        }
+
+        // Parts left uncompressed by a previous run that didn't get to close them.
+        private void compressLeftovers()
+        {
+            final File[] directories = new File(LOG_DIRECTORY, SESSION_DIRECTORY).listFiles(File::isDirectory);
+            if (directories == null)
+            {
+                return;
+            }
+
+            for (final File directory : directories)
+            {
+                final File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+                if (files == null)
+                {
+                    continue;
+                }
+
+                for (final File _file : files)
+                {
+                    compress(_file);
+                }
+            }
+        }
+    }
+
+    // Bytes handed to the buffer so far, for rotating by size. Bulk writes go straight through.
+    private static final class CountingOutputStream extends FilterOutputStream
+    {
+        private long count = 0;
+
+        private CountingOutputStream(final OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+        private long getCount()
+        {
+            return this.count;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.io.IOException;
+
+public interface BTC_TelnetConnection
+{
+    public static final String MODE_COMMONS = "commons";
+    public static final String MODE_NIO = "nio";
+
+    // Returns immediately, the listener is notified from the connection's reader thread.
+    public void connect(String hostname, int port, Listener listener);
+
+    public void send(String text) throws IOException;
+
+    public void disconnect() throws IOException;
+
+    public static BTC_TelnetConnection create(final String mode)
+    {
+        if (MODE_NIO.equalsIgnoreCase(mode))
+        {
+            return new BTC_NioTelnetConnection();
+        }
+
+        return new BTC_CommonsNetConnection();
+    }
+
+    public static interface Listener
+    {
+        public void onConnected();
+
+        public void onLine(String line);
+
+        public void onDisconnected(IOException ex);
+    }
+}
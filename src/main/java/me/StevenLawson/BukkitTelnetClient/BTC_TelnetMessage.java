@@ -19,23 +19,22 @@
 package me.StevenLawson.BukkitTelnetClient;
 
 import java.awt.Color;
-import java.util.regex.Pattern;
 
 public class BTC_TelnetMessage extends BTC_ConsoleMessage
 {
-    private static final String PATTERN_PREFIX = "^:\\[.+? INFO\\]: ";
     private static final Color PURPLE = new Color(128, 0, 128);
     private static final Color DARK_GREEN = new Color(86, 130, 3);
 
-    private static final Pattern ERROR_MESSAGE = Pattern.compile("^:\\[.+? (?:(WARN)|(ERROR))\\]: ");
-    private static final Pattern INFO_MESSAGE = Pattern.compile(PATTERN_PREFIX);
-
+    private final BTC_LogMessageClassifier.Classification classification;
     private final BTC_LogMessageType messageType;
+    private final BTC_MessageClass messageClass;
 
     public BTC_TelnetMessage(String message)
     {
         super(message);
-        this.messageType = BTC_LogMessageType.getMessageType(message);
+        this.classification = BTC_LogMessageClassifier.classify(message);
+        this.messageType = this.classification.getType();
+        this.messageClass = this.classification.getMessageClass();
     }
 
     public BTC_LogMessageType getMessageType()
@@ -43,134 +42,197 @@ public class BTC_TelnetMessage extends BTC_ConsoleMessage
         return this.messageType;
     }
 
+    public BTC_MessageClass getMessageClass()
+    {
+        return this.messageClass;
+    }
+
+    public int getTypeId()
+    {
+        return this.messageType != null ? this.messageType.getId() : BTC_LogMessageClassifier.UNTYPED_ID;
+    }
+
+    public int getMessageClassId()
+    {
+        return this.messageClass != null ? this.messageClass.getId() : BTC_ConsoleLineStore.TYPE_NONE;
+    }
+
     public boolean isErrorMessage()
     {
-        return ERROR_MESSAGE.matcher(this.getMessage()).find();
+        return this.classification.isError();
     }
 
     public boolean isInfoMessage()
     {
-        return INFO_MESSAGE.matcher(this.getMessage()).find();
+        return this.classification.isInfo();
     }
 
-    private boolean isType(final BTC_LogMessageType checkType)
+    public BTC_LogMessageClassifier.LogLevel getLevel()
     {
-        return this.messageType != null ? this.messageType == checkType : false;
+        return this.classification.getLevel();
     }
 
-    public boolean skip()
+    // Index of the text after the "[time LEVEL]: " prefix, -1 if the line has no such prefix.
+    public int getBodyOffset()
     {
-        final BTC_MainPanel mainPanel = BukkitTelnetClient.mainPanel;
+        return this.classification.getBodyOffset();
+    }
 
-        if (mainPanel == null)
+    // A message class or type color wins over setColor, which only colors unclassified lines.
+    @Override
+    public Color getColor()
+    {
+        if (this.messageClass != null)
         {
-            return false;
+            return this.messageClass.getColor();
         }
 
-        if (mainPanel.getChkShowChatOnly().isSelected())
+        if (this.messageType == null)
         {
-            return !isType(BTC_LogMessageType.CHAT_MESSAGE)
-                    && !isType(BTC_LogMessageType.CSAY_MESSAGE)
-                    && !isType(BTC_LogMessageType.SAY_MESSAGE)
-                    && !isType(BTC_LogMessageType.ADMINSAY_MESSAGE)
-                    && !isType(BTC_LogMessageType.LEGACY_ADMINSAY_MESSAGE);
+            return super.getColor();
         }
+        else
+        {
+            return this.messageType.getColor();
+        }
+    }
 
-        if (mainPanel.getChkIgnoreServerCommands().isSelected() && isType(BTC_LogMessageType.ISSUED_SERVER_COMMAND))
+    @Override
+    public int getPaletteIndex()
+    {
+        if (this.messageClass != null)
         {
-            return true;
+            return this.messageClass.getPaletteIndex();
         }
 
-        if (mainPanel.getChkIgnorePlayerCommands().isSelected() && isType(BTC_LogMessageType.PLAYER_COMMAND))
+        if (this.messageType == null)
         {
-            return true;
+            return super.getPaletteIndex();
         }
-        
-        if (mainPanel.getChkIgnoreAWE().isSelected() && isType(BTC_LogMessageType.ASYNC_WORLD_EDIT))
+        else
         {
-            return true;
+            return this.messageType.getPaletteIndex();
+        }
+    }
+
+    // The player a chat, admin chat or command line is from, null for other lines.
+    public String getPlayerName()
+    {
+        final int body = getBodyOffset();
+        if (this.messageType == null || body < 0)
+        {
+            return null;
         }
 
-        if (mainPanel.getChkIgnoreErrors().isSelected())
+        final String message = getMessage();
+        switch (this.messageType)
         {
-            if (!isType(BTC_LogMessageType.CHAT_MESSAGE)
-                    && !isType(BTC_LogMessageType.CSAY_MESSAGE)
-                    && !isType(BTC_LogMessageType.SAY_MESSAGE)
-                    && !isType(BTC_LogMessageType.ADMINSAY_MESSAGE)
-                    && !isType(BTC_LogMessageType.LEGACY_ADMINSAY_MESSAGE))
+            case CHAT_MESSAGE:
             {
-                return false;
+                // "<[Tag] Name> message", the name is the last word before the '>'.
+                final int end = message.indexOf('>', body);
+                if (end < 0)
+                {
+                    return null;
+                }
+                int start = end;
+                while (start > body + 1 && isNameChar(message.charAt(start - 1)))
+                {
+                    start--;
+                }
+                return start < end ? message.substring(start, end) : null;
             }
+            case ADMINSAY_MESSAGE:
+                return readName(message, body + "[ADMIN] ".length());
+            case LEGACY_ADMINSAY_MESSAGE:
+                return readName(message, body + "[TotalFreedomMod] [ADMIN] ".length());
+            case PREPROCESS_COMMAND:
+                return readName(message, body + "[PREPROCESS_COMMAND] ".length());
+            case PLAYER_COMMAND:
+                return readName(message, body + "[PLAYER_COMMAND] ".length());
+            case ISSUED_SERVER_COMMAND:
+                return readName(message, body);
+            default:
+                return null;
         }
-
-        return false;
     }
 
-    @Override
-    public Color getColor()
+    private static String readName(final String message, final int start)
     {
-        if (this.messageType == null)
+        int end = start;
+        while (end < message.length() && isNameChar(message.charAt(end)))
         {
-            return super.getColor();
-        }
-        else
-        {
-            return this.messageType.getColor();
+            end++;
         }
+        return end > start ? message.substring(start, end) : null;
+    }
+
+    private static boolean isNameChar(final char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
     }
 
     public static enum BTC_LogMessageType
     {
-        CHAT_MESSAGE(PATTERN_PREFIX + "\\<", Color.BLUE),
-        SAY_MESSAGE(PATTERN_PREFIX + "\\[Server:", Color.BLUE),
-        CSAY_MESSAGE(PATTERN_PREFIX + "\\[CONSOLE\\]<", Color.BLUE),
+        CHAT_MESSAGE(Color.BLUE),
+        SAY_MESSAGE(Color.BLUE),
+        CSAY_MESSAGE(Color.BLUE),
         //
-        ADMINSAY_MESSAGE(PATTERN_PREFIX + "\\[ADMIN\\] ", PURPLE),
-        LEGACY_ADMINSAY_MESSAGE(PATTERN_PREFIX + "\\[TotalFreedomMod\\] \\[ADMIN\\] ", PURPLE),
+        ADMINSAY_MESSAGE(PURPLE),
+        LEGACY_ADMINSAY_MESSAGE(PURPLE),
         //
-        WORLD_EDIT(PATTERN_PREFIX + "WorldEdit: ", Color.RED),
-        ASYNC_WORLD_EDIT(PATTERN_PREFIX + "\\[AsyncWorldEdit] ", Color.RED),
+        WORLD_EDIT(Color.RED),
+        ASYNC_WORLD_EDIT(Color.RED),
         //
-        PREPROCESS_COMMAND(PATTERN_PREFIX + "\\[PREPROCESS_COMMAND\\] ", DARK_GREEN),
+        PREPROCESS_COMMAND(DARK_GREEN),
         //
-        ISSUED_SERVER_COMMAND(PATTERN_PREFIX + ".+? issued server command: "),
-        PLAYER_COMMAND(PATTERN_PREFIX + "\\[PLAYER_COMMAND\\] ");
+        ISSUED_SERVER_COMMAND,
+        PLAYER_COMMAND;
 
-        private final Pattern messagePattern;
         private final Color color;
+        private final int paletteIndex;
 
-        private BTC_LogMessageType(final String messagePatternStr)
+        private BTC_LogMessageType()
         {
-            this.messagePattern = Pattern.compile(messagePatternStr);
-            this.color = Color.BLACK;
+            this(Color.BLACK);
         }
 
-        private BTC_LogMessageType(final String messagePatternStr, final Color color)
+        private BTC_LogMessageType(final Color color)
         {
-            this.messagePattern = Pattern.compile(messagePatternStr);
             this.color = color;
+            this.paletteIndex = BTC_ConsolePalette.indexOf(color);
         }
 
-        public Pattern getMessagePattern()
+        public Color getColor()
         {
-            return this.messagePattern;
+            return this.color;
         }
 
-        public Color getColor()
+        public int getPaletteIndex()
         {
-            return this.color;
+            return this.paletteIndex;
         }
 
+        // Console line type id, 1 to values().length. 0 is sent/client lines (BTC_SessionArchive.TYPE_SENT)
+        // and values().length + 1 is untyped lines (BTC_LogMessageClassifier.UNTYPED_ID), archive entries rely on this.
+        public int getId()
+        {
+            return ordinal() + 1;
+        }
+
+        public boolean isChat()
+        {
+            return this == CHAT_MESSAGE
+                    || this == CSAY_MESSAGE
+                    || this == SAY_MESSAGE
+                    || this == ADMINSAY_MESSAGE
+                    || this == LEGACY_ADMINSAY_MESSAGE;
+        }
+
+        // Same result as trying each pattern in order, without running the regexes.
         public static BTC_LogMessageType getMessageType(final String message)
         {
-            for (final BTC_LogMessageType type : values())
-            {
-                if (type.getMessagePattern().matcher(message).find())
-                {
-                    return type;
-                }
-            }
-            return null;
+            return BTC_LogMessageClassifier.classify(message).getType();
         }
     }
 }
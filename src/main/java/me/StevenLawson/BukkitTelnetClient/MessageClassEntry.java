@@ -0,0 +1,124 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.util.ArrayList;
+
+public class MessageClassEntry extends ConfigEntry
+{
+    public static final String MATCH_PREFIX = "prefix";
+    public static final String MATCH_CONTAINS = "contains";
+
+    private String name;
+    private String pattern;
+    private String match = MATCH_PREFIX;
+    private String color = "#000000";
+    private boolean hidden = false;
+
+    public MessageClassEntry()
+    {
+    }
+
+    @ParameterGetter(name = "name")
+    public String getName()
+    {
+        return name;
+    }
+
+    @ParameterSetter(name = "name")
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    @ParameterGetter(name = "pattern")
+    public String getPattern()
+    {
+        return pattern;
+    }
+
+    @ParameterSetter(name = "pattern")
+    public void setPattern(String pattern)
+    {
+        this.pattern = pattern;
+    }
+
+    // "prefix": the pattern starts the text after "[time LEVEL]: ", "contains": anywhere in the line.
+    @ParameterGetter(name = "match")
+    public String getMatch()
+    {
+        return match;
+    }
+
+    @ParameterSetter(name = "match")
+    public void setMatch(String match)
+    {
+        this.match = match;
+    }
+
+    @ParameterGetter(name = "color")
+    public String getColor()
+    {
+        return color;
+    }
+
+    @ParameterSetter(name = "color")
+    public void setColor(String color)
+    {
+        this.color = color;
+    }
+
+    @ParameterGetter(name = "hidden")
+    public boolean isHidden()
+    {
+        return hidden;
+    }
+
+    @ParameterSetter(name = "hidden")
+    public void setHidden(Boolean hidden)
+    {
+        this.hidden = hidden;
+    }
+
+    public static class MessageClassEntryList extends ConfigEntryList<MessageClassEntry>
+    {
+        public MessageClassEntryList()
+        {
+            super(new ArrayList<>(), MessageClassEntry.class);
+        }
+
+        @Override
+        public String getParentElementName()
+        {
+            return "messageClasses";
+        }
+
+        @Override
+        public String getItemElementName()
+        {
+            return "messageClass";
+        }
+    }
+
+    @Override
+    public String getElementName()
+    {
+        return "messageClass";
+    }
+}
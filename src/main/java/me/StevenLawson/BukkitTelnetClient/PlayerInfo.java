@@ -18,20 +18,30 @@
  */
 package me.StevenLawson.BukkitTelnetClient;
 
-import java.lang.annotation.Annotation;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.invoke.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.logging.Level;
+import org.apache.commons.lang3.StringUtils;
 
 public class PlayerInfo
 {
+    public static final int COLUMN_NAME = 0;
+    public static final int COLUMN_IP = 1;
+    public static final int COLUMN_TAG = 2;
+    public static final int COLUMN_NICKNAME = 3;
+    public static final int COLUMN_ADMIN_LEVEL = 4;
+
     public static int numColumns;
     public static String[] columnNames;
 
@@ -41,62 +51,107 @@ public class PlayerInfo
     private final String uuid;
 
     // TFM tags:
-    private final boolean admin;
-    private final boolean telnetAdmin;
-    private final boolean seniorAdmin;
     private final String tag;
     private final String nickName;
 
+    // Admin levels and whether the player was on the ban list when it was decoded, packed into one byte.
+    private static final int FLAG_ADMIN = 1;
+    private static final int FLAG_TELNET_ADMIN = 1 << 1;
+    private static final int FLAG_SENIOR_ADMIN = 1 << 2;
+    private static final int FLAG_OFFENDER = 1 << 3;
+    private final byte flags;
+
+    // One accessor per table column, resolved from the @PlayerTableColumn getters once.
+    private static final Function<PlayerInfo, Object>[] columnAccessors;
+
     static
     {
         final Map<Integer, String> columnNamesMap = new HashMap<>();
+        final Map<Integer, Function<PlayerInfo, Object>> columnAccessorsMap = new HashMap<>();
 
-        int _numColumns = 0;
-        final Method[] declaredMethods = PlayerInfo.class.getDeclaredMethods();
-        for (final Method method : declaredMethods)
+        for (final Method method : PlayerInfo.class.getDeclaredMethods())
         {
-            final Annotation[] declaredAnnotations = method.getDeclaredAnnotations();
-            for (final Annotation annotation : declaredAnnotations)
+            final PlayerTableColumn playerInfoTag = BukkitTelnetClient.getDeclaredAnnotation(method, PlayerTableColumn.class);
+            if (playerInfoTag != null)
             {
-                if (annotation instanceof PlayerTableColumn)
-                {
-                    PlayerTableColumn playerInfoTag = (PlayerTableColumn) annotation;
-                    columnNamesMap.put(playerInfoTag.column(), playerInfoTag.name());
-                    _numColumns++;
-                }
+                columnNamesMap.put(playerInfoTag.column(), playerInfoTag.name());
+                columnAccessorsMap.put(playerInfoTag.column(), createAccessor(method));
             }
         }
 
+        final int _numColumns = columnNamesMap.size();
         final String[] _columnNames = new String[_numColumns];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Function<PlayerInfo, Object>[] _columnAccessors = new Function[_numColumns];
         for (int i = 0; i < _numColumns; i++)
         {
             _columnNames[i] = columnNamesMap.get(i);
+            _columnAccessors[i] = columnAccessorsMap.get(i);
         }
 
         columnNames = _columnNames;
         numColumns = _numColumns;
+        columnAccessors = _columnAccessors;
+    }
+
+    // Spins the getter into a Function so column reads are plain calls instead of Method.invoke.
+    @SuppressWarnings("unchecked")
+    private static Function<PlayerInfo, Object> createAccessor(final Method method)
+    {
+        try
+        {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final MethodHandle getter = lookup.unreflect(method);
+            final CallSite site = LambdaMetafactory.metafactory(
+                    lookup,
+                    "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    getter,
+                    MethodType.methodType(method.getReturnType(), PlayerInfo.class));
+
+            return (Function<PlayerInfo, Object>) site.getTarget().invokeExact();
+        }
+        catch (Throwable ex)
+        {
+            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+        }
+
+        return player ->
+        {
+            try
+            {
+                return method.invoke(player);
+            }
+            catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex)
+            {
+                BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
+                return null;
+            }
+        };
     }
 
-    public PlayerInfo(String name, String ip, String displayName, String uuid, boolean admin, boolean telnetAdmin, boolean seniorAdmin, String tag, String nickName)
+    public PlayerInfo(String name, String ip, String displayName, String uuid, boolean admin, boolean telnetAdmin, boolean seniorAdmin, String tag, String nickName, boolean offender)
     {
         this.name = name;
         this.ip = ip;
         this.displayName = displayName;
         this.uuid = uuid;
-        this.admin = admin;
-        this.telnetAdmin = telnetAdmin;
-        this.seniorAdmin = seniorAdmin;
         this.tag = tag;
         this.nickName = nickName;
+        this.flags = (byte) ((admin ? FLAG_ADMIN : 0)
+                | (telnetAdmin ? FLAG_TELNET_ADMIN : 0)
+                | (seniorAdmin ? FLAG_SENIOR_ADMIN : 0)
+                | (offender ? FLAG_OFFENDER : 0));
     }
 
-    @PlayerTableColumn(name = "Name", column = 0)
+    @PlayerTableColumn(name = "Name", column = COLUMN_NAME)
     public String getName()
     {
         return name;
     }
 
-    @PlayerTableColumn(name = "IP", column = 1)
+    @PlayerTableColumn(name = "IP", column = COLUMN_IP)
     public String getIp()
     {
         return ip;
@@ -114,32 +169,48 @@ public class PlayerInfo
 
     public boolean isAdmin()
     {
-        return admin;
+        return (flags & FLAG_ADMIN) != 0;
     }
 
     public boolean isTelnetAdmin()
     {
-        return telnetAdmin;
+        return (flags & FLAG_TELNET_ADMIN) != 0;
     }
 
     public boolean isSeniorAdmin()
     {
-        return seniorAdmin;
+        return (flags & FLAG_SENIOR_ADMIN) != 0;
+    }
+
+    public boolean isOffender()
+    {
+        return (flags & FLAG_OFFENDER) != 0;
     }
 
-    @PlayerTableColumn(name = "Tag", column = 2)
+    @PlayerTableColumn(name = "Tag", column = COLUMN_TAG)
     public String getTag()
     {
         return tag == null || tag.isEmpty() || tag.equalsIgnoreCase("null") ? "" : tag;
     }
 
-    @PlayerTableColumn(name = "Nickname", column = 3)
+    // The tag as decoded, so the decoder can tell whether a player changed.
+    String getRawTag()
+    {
+        return tag;
+    }
+
+    @PlayerTableColumn(name = "Nickname", column = COLUMN_NICKNAME)
     public String getNickName()
     {
         return nickName == null || nickName.isEmpty() || nickName.equalsIgnoreCase("null") ? "" : nickName;
     }
 
-    @PlayerTableColumn(name = "Admin Level", column = 4)
+    String getRawNickName()
+    {
+        return nickName;
+    }
+
+    @PlayerTableColumn(name = "Admin Level", column = COLUMN_ADMIN_LEVEL)
     public String getAdminLevel()
     {
         if (isAdmin())
@@ -160,40 +231,74 @@ public class PlayerInfo
         return "";
     }
 
-    public String getColumnValue(int columnIndex)
+    // 0 for non-admins, then Super, Telnet and Senior.
+    public int getAdminLevelOrdinal()
+    {
+        if (!isAdmin())
+        {
+            return 0;
+        }
+
+        return isSeniorAdmin() ? 3 : isTelnetAdmin() ? 2 : 1;
+    }
+
+    // What the player table sorts a column by: folded strings, IPv4 addresses by value and admin level by rank.
+    public Comparable<?> getSortKey(int columnIndex)
+    {
+        switch (columnIndex)
+        {
+            case COLUMN_NAME:
+                return getName() != null ? getName().toLowerCase(Locale.ROOT) : "";
+            case COLUMN_IP:
+                return getIpSortKey(getIp());
+            case COLUMN_TAG:
+                return getTag().toLowerCase(Locale.ROOT);
+            case COLUMN_NICKNAME:
+                return getNickName().toLowerCase(Locale.ROOT);
+            case COLUMN_ADMIN_LEVEL:
+                return getAdminLevelOrdinal();
+            default:
+                return getColumnValue(columnIndex);
+        }
+    }
+
+    // Dotted quads zero padded so they sort numerically, anything else as is after them.
+    private static String getIpSortKey(final String ip)
     {
-        final Method[] declaredMethods = this.getClass().getDeclaredMethods();
-        for (final Method method : declaredMethods)
+        if (ip == null)
+        {
+            return "";
+        }
+
+        final String[] octets = ip.split("\\.", -1);
+        if (octets.length != 4)
+        {
+            return "~" + ip.toLowerCase(Locale.ROOT);
+        }
+
+        final StringBuilder key = new StringBuilder(15);
+        for (final String octet : octets)
         {
-            final Annotation[] declaredAnnotations = method.getDeclaredAnnotations();
-            for (final Annotation annotation : declaredAnnotations)
+            if (octet.isEmpty() || octet.length() > 3 || !StringUtils.isNumeric(octet))
             {
-                if (annotation instanceof PlayerTableColumn)
-                {
-                    PlayerTableColumn playerInfoTag = (PlayerTableColumn) annotation;
-
-                    if (playerInfoTag.column() == columnIndex)
-                    {
-                        try
-                        {
-                            final Object value = method.invoke(this);
-                            if (value != null)
-                            {
-                                return value.toString();
-                            }
-                        }
-                        catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException ex)
-                        {
-                            BukkitTelnetClient.LOGGER.log(Level.SEVERE, null, ex);
-                        }
-
-                        return "null";
-                    }
-                }
+                return "~" + ip.toLowerCase(Locale.ROOT);
             }
+
+            key.append(StringUtils.leftPad(octet, 3, '0')).append('.');
+        }
+
+        return key.toString();
+    }
+
+    public String getColumnValue(int columnIndex)
+    {
+        if (columnIndex < 0 || columnIndex >= numColumns)
+        {
+            return "null";
         }
 
-        return "null";
+        final Object value = columnAccessors[columnIndex].apply(this);
+        return value != null ? value.toString() : "null";
     }
 
     @Retention(RetentionPolicy.RUNTIME)
@@ -205,6 +310,35 @@ public class PlayerInfo
         public int column();
     }
 
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+
+        if (!(obj instanceof PlayerInfo))
+        {
+            return false;
+        }
+
+        final PlayerInfo other = (PlayerInfo) obj;
+        return flags == other.flags
+                && Objects.equals(name, other.name)
+                && Objects.equals(ip, other.ip)
+                && Objects.equals(displayName, other.displayName)
+                && Objects.equals(uuid, other.uuid)
+                && Objects.equals(tag, other.tag)
+                && Objects.equals(nickName, other.nickName);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(name, ip, displayName, uuid, flags, tag, nickName);
+    }
+
     public static Comparator<PlayerInfo> getComparator()
     {
         return (PlayerInfo a, PlayerInfo b) -> a.getName().compareTo(b.getName());
@@ -0,0 +1,147 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import org.apache.commons.lang3.StringUtils;
+
+public class SettingsEntry extends ConfigEntry
+{
+    public static final String SCROLLBACK_UNIT_LINES = "lines";
+    public static final String SCROLLBACK_UNIT_BYTES = "bytes";
+
+    private String connectionMode = BTC_TelnetConnection.MODE_COMMONS;
+    private String scrollbackLimit = "200000";
+    private String scrollbackUnit = SCROLLBACK_UNIT_LINES;
+    private boolean spillEvictedLines = false;
+    private boolean sessionLog = true;
+    private String sessionLogMaxBytes = "16777216";
+
+    public SettingsEntry()
+    {
+    }
+
+    @ParameterGetter(name = "connectionMode")
+    public String getConnectionMode()
+    {
+        return connectionMode;
+    }
+
+    @ParameterSetter(name = "connectionMode")
+    public void setConnectionMode(String connectionMode)
+    {
+        this.connectionMode = connectionMode;
+    }
+
+    @ParameterGetter(name = "scrollbackLimit")
+    public String getScrollbackLimit()
+    {
+        return scrollbackLimit;
+    }
+
+    @ParameterSetter(name = "scrollbackLimit")
+    public void setScrollbackLimit(String scrollbackLimit)
+    {
+        this.scrollbackLimit = scrollbackLimit;
+    }
+
+    @ParameterGetter(name = "scrollbackUnit")
+    public String getScrollbackUnit()
+    {
+        return scrollbackUnit;
+    }
+
+    @ParameterSetter(name = "scrollbackUnit")
+    public void setScrollbackUnit(String scrollbackUnit)
+    {
+        this.scrollbackUnit = scrollbackUnit;
+    }
+
+    @ParameterGetter(name = "spillEvictedLines")
+    public boolean isSpillEvictedLines()
+    {
+        return spillEvictedLines;
+    }
+
+    @ParameterSetter(name = "spillEvictedLines")
+    public void setSpillEvictedLines(Boolean spillEvictedLines)
+    {
+        this.spillEvictedLines = spillEvictedLines;
+    }
+
+    @ParameterGetter(name = "sessionLog")
+    public boolean isSessionLog()
+    {
+        return sessionLog;
+    }
+
+    @ParameterSetter(name = "sessionLog")
+    public void setSessionLog(Boolean sessionLog)
+    {
+        this.sessionLog = sessionLog;
+    }
+
+    @ParameterGetter(name = "sessionLogMaxBytes")
+    public String getSessionLogMaxBytesString()
+    {
+        return sessionLogMaxBytes;
+    }
+
+    @ParameterSetter(name = "sessionLogMaxBytes")
+    public void setSessionLogMaxBytesString(String sessionLogMaxBytes)
+    {
+        this.sessionLogMaxBytes = sessionLogMaxBytes;
+    }
+
+    // Size a session log part is rotated at, 0 means only by day.
+    public long getSessionLogMaxBytes()
+    {
+        final long maxBytes = parseLimit(sessionLogMaxBytes);
+        return maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+    }
+
+    // 0 means unlimited.
+    public int getMaxScrollbackLines()
+    {
+        return SCROLLBACK_UNIT_BYTES.equalsIgnoreCase(scrollbackUnit) ? 0 : (int) Math.min(Integer.MAX_VALUE, parseLimit(scrollbackLimit));
+    }
+
+    // 0 means unlimited.
+    public long getMaxScrollbackBytes()
+    {
+        return SCROLLBACK_UNIT_BYTES.equalsIgnoreCase(scrollbackUnit) ? parseLimit(scrollbackLimit) : 0;
+    }
+
+    private static long parseLimit(final String limit)
+    {
+        try
+        {
+            return Math.max(0, Long.parseLong(StringUtils.trimToEmpty(limit)));
+        }
+        catch (NumberFormatException ex)
+        {
+            return 0;
+        }
+    }
+
+    @Override
+    public String getElementName()
+    {
+        return "settings";
+    }
+}
@@ -0,0 +1,103 @@
+/* 
+ * Copyright (C) 2012-2017 Steven Lawson
+ *
+ * This file is part of FreedomTelnetClient.
+ *
+ * FreedomTelnetClient is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.StevenLawson.BukkitTelnetClient;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+
+// Bytes allocated per player list refresh, for an unchanged list and for one with a single player changed.
+// Not a unit test, run it by hand after mvn test-compile:
+// java -cp target/classes:target/test-classes:<commons-lang3 jar> me.StevenLawson.BukkitTelnetClient.BTC_PlayerListDecoderBenchmark
+public class BTC_PlayerListDecoderBenchmark
+{
+    private static final int PLAYERS = 150;
+    private static final int WARMUP_ROUNDS = 20000;
+    private static final int ROUNDS = 10000;
+
+    public static void main(final String[] args)
+    {
+        final java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported())
+        {
+            System.err.println("This JVM can't report allocated bytes per thread.");
+            return;
+        }
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+        final long threadId = Thread.currentThread().getId();
+
+        final String unchanged = payload(PLAYERS, -1);
+        final String[] changing = new String[10];
+        for (int i = 0; i < changing.length; i++)
+        {
+            changing[i] = payload(PLAYERS, i * 7);
+        }
+
+        final BTC_PlayerListDecoder decoder = new BTC_PlayerListDecoder();
+        if (decoder.decodePlayerList(unchanged) == null)
+        {
+            System.err.println("The benchmark payload didn't decode.");
+            return;
+        }
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+        {
+            decoder.decodePlayerList(unchanged);
+            decoder.decodePlayerList(changing[i % changing.length]);
+        }
+        decoder.decodePlayerList(unchanged);
+
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            decoder.decodePlayerList(unchanged);
+        }
+        long after = allocations.getThreadAllocatedBytes(threadId);
+        System.out.println("Unchanged " + PLAYERS + " player refresh: " + (after - before) / ROUNDS + " bytes");
+
+        before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            decoder.decodePlayerList(changing[i % changing.length]);
+        }
+        after = allocations.getThreadAllocatedBytes(threadId);
+        System.out.println("One player changed per refresh: " + (after - before) / ROUNDS + " bytes");
+    }
+
+    // A playerList line as BukkitTelnet sends it, the player at changedPlayer gets a nickname.
+    private static String payload(final int players, final int changedPlayer)
+    {
+        final StringBuilder payload = new StringBuilder(":[12:00:00 INFO]: [Server@BukkitTelnet]$ playerList~{\"players\":[");
+        for (int i = 0; i < players; i++)
+        {
+            if (i > 0)
+            {
+                payload.append(',');
+            }
+            payload.append("{\"name\":\"Player").append(i)
+                    .append("\",\"ip\":\"10.0.").append(i / 256).append('.').append(i % 256)
+                    .append("\",\"displayName\":\"Player").append(i)
+                    .append("\",\"uuid\":\"").append(new UUID(i, i * 31L))
+                    .append("\",\"tfm.admin.isAdmin\":\"").append(i % 10 == 0)
+                    .append("\",\"tfm.admin.isTelnetAdmin\":\"false\",\"tfm.admin.isSeniorAdmin\":\"").append(i % 30 == 0)
+                    .append("\",\"tfm.playerdata.getTag\":\"").append(i % 3 == 0 ? "&8[&7Member&8]" : "null")
+                    .append("\",\"tfm.essentialsBridge.getNickname\":\"").append(i == changedPlayer ? "Nick" + changedPlayer : "null")
+                    .append("\"}");
+        }
+        return payload.append("],\"count\":").append(players).append("}").toString();
+    }
+}